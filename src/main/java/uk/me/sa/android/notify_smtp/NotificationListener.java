@@ -18,21 +18,38 @@
  */
 package uk.me.sa.android.notify_smtp;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.androidannotations.annotations.EService;
 import org.androidannotations.annotations.sharedpreferences.Pref;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.me.sa.android.notify_smtp.data.DedupCache;
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
+import uk.me.sa.android.notify_smtp.data.PictureStore;
 import uk.me.sa.android.notify_smtp.data.Prefs_;
+import uk.me.sa.android.notify_smtp.data.Rule;
+import uk.me.sa.android.notify_smtp.data.Rules;
 import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
-import uk.me.sa.android.notify_smtp.net.SendEmail;
-import uk.me.sa.android.notify_smtp.util.SequentialRetryRunnable;
-import uk.me.sa.android.notify_smtp.util.WakeLockRunnable;
-import android.app.Notification;
+import uk.me.sa.android.notify_smtp.net.CommandLatency;
+import uk.me.sa.android.notify_smtp.net.NetworkMonitor;
+import uk.me.sa.android.notify_smtp.net.RateLimiter;
+import uk.me.sa.android.notify_smtp.net.SMTPConnectionManager;
+import uk.me.sa.android.notify_smtp.net.SendQueue;
+import uk.me.sa.android.notify_smtp.util.AlarmRetryScheduler;
+import uk.me.sa.android.notify_smtp.util.JobRetryScheduler;
+import uk.me.sa.android.notify_smtp.util.SendExecutor;
 import android.content.Context;
-import android.os.Build;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.graphics.Bitmap;
 import android.os.PowerManager;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
@@ -40,8 +57,32 @@ import android.service.notification.StatusBarNotification;
 @EService
 public class NotificationListener extends NotificationListenerService {
 	private static final Logger log = LoggerFactory.getLogger(NotificationListener.class);
+	private static final int SEND_THREADS = 1;
+	private static final int SEND_QUEUE_SIZE = 32;
+	private static final int STORE_QUEUE_SIZE = 256;
+	private static final long STORE_DRAIN_MS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
 
 	private PowerManager pm;
+	private SendExecutor executor;
+	private JobRetryScheduler retries;
+	private AlarmRetryScheduler alarms;
+	private NetworkMonitor network;
+	private SMTPConnectionManager connections;
+	private SendQueue queue;
+	private RateLimiter limiter;
+	private PictureStore pictures;
+	private SendExecutor storeExecutor;
+	private Rules rules;
+	private DedupCache dedup;
+	private volatile ValidatedPrefs config;
+
+	private final OnSharedPreferenceChangeListener prefsListener = new OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+			config = new ValidatedPrefs(prefs);
+			connections.prefetch(config);
+		}
+	};
 
 	@Pref
 	Prefs_ prefs;
@@ -50,7 +91,51 @@ public class NotificationListener extends NotificationListenerService {
 	public void onCreate() {
 		super.onCreate();
 
+		rules = new Rules(getResources(), R.xml.rules);
+		dedup = new DedupCache(new File(getFilesDir(), "dedup"));
 		pm = (PowerManager)getApplicationContext().getSystemService(Context.POWER_SERVICE);
+		executor = new SendExecutor(SEND_THREADS, SEND_QUEUE_SIZE);
+		retries = new JobRetryScheduler(this, executor);
+		alarms = new AlarmRetryScheduler(this, executor);
+		network = new NetworkMonitor(this);
+		connections = new SMTPConnectionManager(network, new CommandLatency(new File(getFilesDir(), CommandLatency.FILENAME)));
+		Outbox outbox = new Outbox(new File(getFilesDir(), "outbox"));
+		Outbox held = new Outbox(new File(getFilesDir(), "held"));
+		pictures = new PictureStore(new File(getFilesDir(), "pictures"));
+		List<Event> pending = outbox.pending();
+		pending.addAll(held.pending());
+		pictures.clean(pending);
+		storeExecutor = new SendExecutor(1, STORE_QUEUE_SIZE, new ThreadPoolExecutor.CallerRunsPolicy());
+		queue = new SendQueue(pm, executor, retries, alarms, network, outbox, connections);
+		limiter = new RateLimiter(queue, retries, held);
+		network.start(queue);
+
+		config = new ValidatedPrefs(prefs);
+		prefs.getSharedPreferences().registerOnSharedPreferenceChangeListener(prefsListener);
+		connections.prefetch(config);
+		queue.replay(config);
+		limiter.replay(config);
+	}
+
+	@Override
+	public void onDestroy() {
+		prefs.getSharedPreferences().unregisterOnSharedPreferenceChangeListener(prefsListener);
+		storeExecutor.shutdown();
+		// Stored notifications are handed to the send path, so wait for them first
+		try {
+			if (!storeExecutor.awaitTermination(STORE_DRAIN_MS, TimeUnit.MILLISECONDS))
+				log.warn("Timed out waiting for notifications to be stored");
+		} catch (InterruptedException e) {
+			log.warn("Interrupted waiting for notifications to be stored", e);
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdown();
+		retries.cancel();
+		alarms.cancel();
+		network.stop();
+		connections.close();
+
+		super.onDestroy();
 	}
 
 	@Override
@@ -82,22 +167,46 @@ public class NotificationListener extends NotificationListenerService {
 	}
 
 	private void processNotification(StatusBarNotification sbn) {
-		if (!prefs.enabled().get())
+		ValidatedPrefs vp = config;
+		if (!vp.enabled)
 			return;
 
-		Notification n = sbn.getNotification();
-		if (n.icon == android.R.drawable.stat_notify_missed_call) {
-			sendEmail(R.string.email_missed_call_notification, sbn);
-		} else if (((Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) || Notification.CATEGORY_MESSAGE.equals(n.category))
-				&& (sbn.getPackageName().equals("com.google.android.talk") || sbn.getPackageName().equals("com.google.android.apps.messaging"))) {
-			sendEmail(R.string.email_message_notification, sbn);
-		}
+		Rule rule = rules.match(sbn);
+		if (rule != null)
+			sendEmail(vp, rule, sbn);
 	}
 
-	private void sendEmail(int text, StatusBarNotification sbn) {
+	private void sendEmail(final ValidatedPrefs vp, Rule rule, StatusBarNotification sbn) {
 		Date ts = new Date(sbn.getPostTime());
-		ValidatedPrefs vp = new ValidatedPrefs(prefs);
-		if (vp.isActiveAt(ts))
-			new Thread(new WakeLockRunnable(pm, new SequentialRetryRunnable(new SendEmail(vp, getString(text), ts)))).start();
+		if (!vp.isActiveAt(ts))
+			return;
+
+		final String key = sbn.getPackageName() + ":" + sbn.getId() + ":" + sbn.getTag();
+		final String subject = rule.subject(sbn);
+		final String content = rule.content(sbn);
+		final Bitmap bitmap = vp.attachPicture ? rule.picture(sbn) : null;
+		final String packageName = sbn.getPackageName();
+		final long postTime = ts.getTime();
+
+		// Dedup cache, picture and outbox writes all sync to disk
+		storeExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (dedup.add(key, postTime))
+					limiter.add(vp, new Event(subject, content, savePicture(bitmap, vp.pictureMaxSize), packageName, postTime));
+			}
+		});
+	}
+
+	private String savePicture(Bitmap bitmap, int maxSize) {
+		if (bitmap == null)
+			return "";
+
+		try {
+			return pictures.save(bitmap, maxSize).getPath();
+		} catch (IOException e) {
+			log.error("Unable to save picture", e);
+			return "";
+		}
 	}
 }
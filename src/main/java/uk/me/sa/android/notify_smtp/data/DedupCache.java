@@ -0,0 +1,152 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.util.DataFiles;
+
+public class DedupCache {
+	private static final Logger log = LoggerFactory.getLogger(DedupCache.class);
+	private static final int VERSION = 1;
+	public static final int MAX_ENTRIES = 256;
+	public static final long TTL_MS = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+
+	private final File file;
+	private final long ttlMs;
+	private final Map<String, Long> entries;
+	private long hits;
+	private long misses;
+
+	public DedupCache(File file) {
+		this(file, MAX_ENTRIES, TTL_MS);
+	}
+
+	public DedupCache(File file, final int maxEntries, long ttlMs) {
+		this.file = file;
+		this.ttlMs = ttlMs;
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		load();
+	}
+
+	private void load() {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+
+		try {
+			int version = in.readInt();
+			if (version != VERSION) {
+				log.warn("Discarding dedup cache with unknown version {}", version);
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				entries.put(key, in.readLong());
+			}
+		} catch (EOFException e) {
+			log.warn("Dedup cache truncated");
+		} catch (IOException e) {
+			log.error("Unable to read dedup cache", e);
+		} finally {
+			DataFiles.close(in);
+		}
+
+		expire(System.currentTimeMillis());
+	}
+
+	public synchronized boolean add(String key, long postTime) {
+		String entry = key + "@" + postTime;
+		long now = System.currentTimeMillis();
+		expire(now);
+
+		if (entries.get(entry) != null) {
+			hits++;
+			log.info("Duplicate notification {} ({} hits, {} misses)", entry, hits, misses);
+			return false;
+		}
+
+		misses++;
+		entries.put(entry, now);
+		save();
+		return true;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private void expire(long now) {
+		Iterator<Long> it = entries.values().iterator();
+		while (it.hasNext()) {
+			long seen = it.next();
+			if (now - seen >= ttlMs || seen > now)
+				it.remove();
+		}
+	}
+
+	private void save() {
+		try {
+			DataFiles.replace(file, new DataFiles.Writer() {
+				@Override
+				public void writeTo(DataOutputStream out) throws IOException {
+					out.writeInt(VERSION);
+					out.writeInt(entries.size());
+					for (Map.Entry<String, Long> entry : entries.entrySet()) {
+						out.writeUTF(entry.getKey());
+						out.writeLong(entry.getValue());
+					}
+				}
+			});
+		} catch (IOException e) {
+			log.error("Unable to save dedup cache", e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+public class Event {
+	private static final int MAX_CONTENT_LENGTH = 8192;
+
+	public final String id;
+	public final String subject;
+	public final String content;
+	public final String picture;
+	public final String packageName;
+	public final long ts;
+
+	public Event(String subject, String packageName, long ts) {
+		this(subject, "", packageName, ts);
+	}
+
+	public Event(String subject, String content, String packageName, long ts) {
+		this(subject, content, "", packageName, ts);
+	}
+
+	public Event(String subject, String content, String picture, String packageName, long ts) {
+		this(UUID.randomUUID().toString(), subject, content.length() > MAX_CONTENT_LENGTH ? content.substring(0, MAX_CONTENT_LENGTH) : content,
+				picture, packageName, ts);
+	}
+
+	Event(String id, String subject, String content, String picture, String packageName, long ts) {
+		this.id = id;
+		this.subject = subject;
+		this.content = content;
+		this.picture = picture;
+		this.packageName = packageName;
+		this.ts = ts;
+	}
+
+	public static Event coalesce(List<Event> events) {
+		if (events.size() == 1)
+			return events.get(0);
+
+		StringBuilder content = new StringBuilder();
+		String picture = "";
+		for (Event event : events) {
+			if (!event.picture.isEmpty())
+				picture = event.picture;
+
+			if (content.length() > 0)
+				content.append("\n\n");
+			content.append(event.subject);
+			if (!event.content.isEmpty())
+				content.append("\n").append(event.content);
+		}
+
+		Event last = events.get(events.size() - 1);
+		return new Event(Message.digestSubject(events), content.toString(), picture, last.packageName, last.ts);
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(id);
+		out.writeUTF(subject);
+		out.writeLong(ts);
+		out.writeUTF(packageName);
+		out.writeUTF(content);
+		out.writeUTF(picture);
+	}
+
+	static Event readFrom(DataInput in, int version) throws IOException {
+		String id = in.readUTF();
+		String subject = in.readUTF();
+		long ts = in.readLong();
+		String packageName = version >= 2 ? in.readUTF() : "";
+		String content = version >= 3 ? in.readUTF() : "";
+		String picture = version >= 4 ? in.readUTF() : "";
+		return new Event(id, subject, content, picture, packageName, ts);
+	}
+
+	@Override
+	public String toString() {
+		return subject + " (" + id + ")";
+	}
+}
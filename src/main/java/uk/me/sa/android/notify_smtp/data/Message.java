@@ -18,44 +18,181 @@
  */
 package uk.me.sa.android.notify_smtp.data;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import android.os.Build;
 
 public class Message {
-	private String content;
+	private static final Logger log = LoggerFactory.getLogger(Message.class);
+	private static final int CHUNK_SIZE = 1024;
+
+	private final byte[] content;
+	private final List<File> pictures;
+	private final String boundary;
 
 	public Message(String subject, Date date, String sender, Collection<String> recipients) {
+		this(subject, date, sender, recipients, "", Collections.<Event>emptyList());
+	}
+
+	public Message(Event event, String sender, Collection<String> recipients) {
+		this(event.subject, new Date(event.ts), sender, recipients, event.content, Collections.singletonList(event));
+	}
+
+	public Message(List<Event> events, String sender, Collection<String> recipients) {
+		this(digestSubject(events), new Date(events.get(events.size() - 1).ts), sender, recipients, digestBody(events), events);
+	}
+
+	private Message(String subject, Date date, String sender, Collection<String> recipients, String body, List<Event> events) {
 		if (recipients.isEmpty())
 			throw new IllegalArgumentException("No recipients");
 
+		pictures = pictures(events);
+		boundary = pictures.isEmpty() ? null : UUID.randomUUID().toString();
+
 		StringBuilder sb = new StringBuilder();
 		sb.append("Message-Id: <").append(UUID.randomUUID()).append("@android.invalid>\r\n");
-		sb.append("Date: ").append(new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z").format(date)).append("\r\n");
-		sb.append("Subject: ").append(subject).append("\r\n");
+		sb.append("Date: ").append(new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH).format(date)).append("\r\n");
+		sb.append(Mime.header("Subject", subject));
 		sb.append("From: ").append(Build.MANUFACTURER).append(" ").append(Build.MODEL).append(" <").append(sender).append(">\r\n");
 
-		sb.append("To: ");
+		sb.append("To:");
+		int lineStart = sb.length() - 3;
 		boolean first = true;
 		for (String recipient : recipients) {
+			String address = "<" + recipient + ">";
 			if (!first)
-				sb.append(", ");
-			sb.append("<" + recipient + ">");
+				sb.append(",");
+			if (!first && sb.length() - lineStart + 1 + address.length() > Mime.MAX_LINE_LENGTH) {
+				sb.append("\r\n");
+				lineStart = sb.length();
+			}
+			sb.append(" ").append(address);
 			first = false;
 		}
 		sb.append("\r\n");
 
+		sb.append("MIME-Version: 1.0\r\n");
+		if (boundary != null) {
+			sb.append("Content-Type: multipart/mixed; boundary=\"").append(boundary).append("\"\r\n");
+			sb.append("X-Auto-Response-Suppress: OOF\r\n");
+			sb.append("\r\n");
+			sb.append("--").append(boundary).append("\r\n");
+		}
 		sb.append("Content-Type: text/plain; charset=UTF-8\r\n");
-		sb.append("Content-Transfer-Encoding: 8bit\r\n");
-		sb.append("X-Auto-Response-Suppress: OOF\r\n");
+		sb.append("Content-Transfer-Encoding: quoted-printable\r\n");
+		if (boundary == null)
+			sb.append("X-Auto-Response-Suppress: OOF\r\n");
 		sb.append("\r\n");
-		content = sb.toString();
+		Mime.quotedPrintable(sb, body);
+		content = sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static List<File> pictures(List<Event> events) {
+		List<File> pictures = new ArrayList<File>();
+		for (Event event : events) {
+			if (event.picture.isEmpty())
+				continue;
+
+			File file = new File(event.picture);
+			if (file.isFile()) {
+				pictures.add(file);
+			} else {
+				log.warn("Picture {} missing for {}", file, event);
+			}
+		}
+		return pictures;
+	}
+
+	static String digestSubject(List<Event> events) {
+		if (events.isEmpty())
+			throw new IllegalArgumentException("No events");
+
+		Set<String> subjects = new LinkedHashSet<String>();
+		for (Event event : events)
+			subjects.add(event.subject);
+
+		StringBuilder sb = new StringBuilder();
+		for (String subject : subjects) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(subject);
+		}
+		sb.append(" (").append(events.size()).append(")");
+		return sb.toString();
+	}
+
+	private static String digestBody(List<Event> events) {
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+		StringBuilder sb = new StringBuilder();
+		for (Event event : events) {
+			sb.append(df.format(new Date(event.ts))).append(" ").append(event.subject);
+			if (!event.packageName.isEmpty())
+				sb.append(" (").append(event.packageName).append(")");
+			sb.append("\r\n");
+
+			if (!event.content.isEmpty())
+				for (String line : event.content.split("\r\n|\r|\n"))
+					sb.append("  ").append(line).append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeTo(Writer writer) throws IOException {
+		char[] buf = new char[Math.min(CHUNK_SIZE, content.length)];
+		for (int offset = 0; offset < content.length; offset += buf.length) {
+			int length = Math.min(buf.length, content.length - offset);
+			for (int i = 0; i < length; i++)
+				buf[i] = (char)(content[offset + i] & 0xFF);
+			writer.write(buf, 0, length);
+		}
+
+		if (boundary == null)
+			return;
+
+		for (File picture : pictures) {
+			writer.write("--" + boundary + "\r\n");
+			writer.write("Content-Type: image/jpeg\r\n");
+			writer.write("Content-Transfer-Encoding: base64\r\n");
+			writer.write("Content-Disposition: inline; filename=\"" + picture.getName() + "\"\r\n");
+			writer.write("\r\n");
+
+			InputStream in = new BufferedInputStream(new FileInputStream(picture));
+			try {
+				Mime.base64(in, writer);
+			} finally {
+				in.close();
+			}
+		}
+		writer.write("--" + boundary + "--\r\n");
 	}
 
 	public String toString() {
-		return content;
+		StringWriter writer = new StringWriter();
+		try {
+			writeTo(writer);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
 	}
 }
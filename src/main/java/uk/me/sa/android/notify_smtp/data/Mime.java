@@ -0,0 +1,163 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.net.util.Base64;
+
+public final class Mime {
+	static final int MAX_LINE_LENGTH = 76;
+	private static final String ENCODED_WORD_PREFIX = "=?UTF-8?B?";
+	private static final String ENCODED_WORD_SUFFIX = "?=";
+	private static final int BASE64_LINE_BYTES = MAX_LINE_LENGTH / 4 * 3;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private Mime() {
+	}
+
+	public static String header(String name, String value) {
+		value = value.replaceAll("[\r\n]+", " ");
+
+		StringBuilder sb = new StringBuilder(name).append(":");
+		if (isPrintableAscii(value)) {
+			foldWords(sb, value);
+		} else {
+			encodeWords(sb, value);
+		}
+		return sb.append("\r\n").toString();
+	}
+
+	private static boolean isPrintableAscii(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < ' ' || c > '~')
+				return false;
+		}
+		return true;
+	}
+
+	private static void foldWords(StringBuilder sb, String value) {
+		int lineStart = 0;
+		for (String word : value.split(" ", -1)) {
+			if (sb.length() - lineStart + 1 + word.length() > MAX_LINE_LENGTH && sb.length() - lineStart > 1) {
+				sb.append("\r\n");
+				lineStart = sb.length();
+			}
+			sb.append(" ").append(word);
+		}
+	}
+
+	private static void encodeWords(StringBuilder sb, String value) {
+		int overhead = ENCODED_WORD_PREFIX.length() + ENCODED_WORD_SUFFIX.length();
+		int lineStart = 0;
+		int i = 0;
+
+		while (i < value.length()) {
+			int maxBytes = (MAX_LINE_LENGTH - (sb.length() - lineStart) - 1 - overhead) / 4 * 3;
+			int bytes = 0;
+			int end = i;
+			while (end < value.length()) {
+				int cp = value.codePointAt(end);
+				int length = utf8Length(cp);
+				if (bytes + length > maxBytes && end > i)
+					break;
+				bytes += length;
+				end += Character.charCount(cp);
+			}
+
+			sb.append(" ").append(ENCODED_WORD_PREFIX);
+			sb.append(Base64.encodeBase64StringUnChunked(value.substring(i, end).getBytes(StandardCharsets.UTF_8)));
+			sb.append(ENCODED_WORD_SUFFIX);
+			i = end;
+
+			if (i < value.length()) {
+				sb.append("\r\n");
+				lineStart = sb.length();
+			}
+		}
+	}
+
+	private static int utf8Length(int cp) {
+		if (cp < 0x80)
+			return 1;
+		if (cp < 0x800)
+			return 2;
+		if (cp < 0x10000)
+			return 3;
+		return 4;
+	}
+
+	public static void quotedPrintable(StringBuilder sb, String text) {
+		String[] lines = text.split("\r\n|\r|\n", -1);
+		for (int l = 0; l < lines.length; l++) {
+			if (l == lines.length - 1 && lines[l].isEmpty())
+				break;
+
+			byte[] bytes = lines[l].getBytes(StandardCharsets.UTF_8);
+			int length = 0;
+			for (int i = 0; i < bytes.length; i++) {
+				int b = bytes[i] & 0xFF;
+				boolean last = i == bytes.length - 1;
+				boolean literal = (b >= '!' && b <= '~' && b != '=') || ((b == ' ' || b == '\t') && !last);
+				int width = literal ? 1 : 3;
+
+				if (length + width > MAX_LINE_LENGTH - (last ? 0 : 1)) {
+					sb.append("=\r\n");
+					length = 0;
+				}
+
+				if (literal) {
+					sb.append((char)b);
+				} else {
+					sb.append('=').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+				}
+				length += width;
+			}
+			sb.append("\r\n");
+		}
+	}
+
+	public static void base64(InputStream in, Writer writer) throws IOException {
+		byte[] line = new byte[BASE64_LINE_BYTES];
+		while (true) {
+			int length = 0;
+			int read;
+			while (length < line.length && (read = in.read(line, length, line.length - length)) != -1)
+				length += read;
+
+			if (length == 0)
+				break;
+
+			byte[] data = line;
+			if (length < line.length) {
+				data = new byte[length];
+				System.arraycopy(line, 0, data, 0, length);
+			}
+			writer.write(Base64.encodeBase64StringUnChunked(data));
+			writer.write("\r\n");
+
+			if (length < line.length)
+				break;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.util.DataFiles;
+
+public class Outbox {
+	private static final Logger log = LoggerFactory.getLogger(Outbox.class);
+	private static final int VERSION = 4;
+	private static final int ADD = 1;
+	private static final int REMOVE = 2;
+	private static final int COMPACT_MIN_RECORDS = 32;
+
+	private final File file;
+	private final Map<String, Event> pending = new LinkedHashMap<String, Event>();
+	private int records;
+	private boolean current;
+
+	public Outbox(File file) {
+		this.file = file;
+
+		load();
+		compact();
+	}
+
+	private void load() {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+
+		try {
+			int version = in.readInt();
+			if (version < 1 || version > VERSION) {
+				log.warn("Discarding outbox with unknown version {}", version);
+				return;
+			}
+
+			while (true) {
+				int type = in.read();
+				if (type == -1)
+					break;
+
+				switch (type) {
+				case ADD:
+					Event event = Event.readFrom(in, version);
+					pending.put(event.id, event);
+					break;
+
+				case REMOVE:
+					pending.remove(in.readUTF());
+					break;
+
+				default:
+					throw new IOException("Unknown record type " + type);
+				}
+			}
+		} catch (EOFException e) {
+			log.warn("Outbox truncated");
+		} catch (IOException e) {
+			log.error("Unable to read outbox", e);
+		} finally {
+			DataFiles.close(in);
+		}
+
+		if (!pending.isEmpty())
+			log.info("Outbox has {} pending", pending.size());
+	}
+
+	public synchronized List<Event> pending() {
+		return new ArrayList<Event>(pending.values());
+	}
+
+	public synchronized void add(Event event) {
+		pending.put(event.id, event);
+
+		try {
+			append(ADD, event);
+		} catch (IOException e) {
+			log.error("Unable to add {} to outbox", event, e);
+		}
+	}
+
+	public void remove(Event event) {
+		remove(event, true);
+	}
+
+	public synchronized void remove(Event event, boolean deletePicture) {
+		if (pending.remove(event.id) == null)
+			return;
+
+		if (deletePicture && !event.picture.isEmpty())
+			PictureStore.delete(new File(event.picture));
+
+		try {
+			append(REMOVE, event);
+		} catch (IOException e) {
+			log.error("Unable to remove {} from outbox", event, e);
+		}
+
+		if (records >= COMPACT_MIN_RECORDS && records > pending.size() * 2)
+			compact();
+	}
+
+	private int readVersion() {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+		} catch (FileNotFoundException e) {
+			return -1;
+		}
+
+		try {
+			return in.readInt();
+		} catch (IOException e) {
+			return -1;
+		} finally {
+			DataFiles.close(in);
+		}
+	}
+
+	private void append(int type, Event event) throws IOException {
+		if (!current || readVersion() != VERSION) {
+			// Records can only be appended after the current header, so
+			// rewrite the whole file (which already includes this change)
+			compact();
+			if (!current)
+				throw new IOException("Unable to rewrite outbox");
+			return;
+		}
+
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.write(type);
+			if (type == ADD) {
+				event.writeTo(out);
+			} else {
+				out.writeUTF(event.id);
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		records++;
+	}
+
+	private void compact() {
+		try {
+			DataFiles.replace(file, new DataFiles.Writer() {
+				@Override
+				public void writeTo(DataOutputStream out) throws IOException {
+					out.writeInt(VERSION);
+					for (Event event : pending.values()) {
+						out.write(ADD);
+						event.writeTo(out);
+					}
+				}
+			});
+
+			records = pending.size();
+			current = true;
+		} catch (IOException e) {
+			log.error("Unable to compact outbox", e);
+			current = false;
+		}
+	}
+}
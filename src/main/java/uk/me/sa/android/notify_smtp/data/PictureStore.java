@@ -0,0 +1,102 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.graphics.Bitmap;
+
+public class PictureStore {
+	private static final Logger log = LoggerFactory.getLogger(PictureStore.class);
+	private static final int JPEG_QUALITY = 85;
+
+	private final File dir;
+
+	public PictureStore(File dir) {
+		this.dir = dir;
+	}
+
+	public File save(Bitmap bitmap, int maxSize) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Unable to create " + dir);
+
+		int[] size = scale(bitmap.getWidth(), bitmap.getHeight(), maxSize);
+		Bitmap scaled = size[0] == bitmap.getWidth() && size[1] == bitmap.getHeight() ? bitmap : Bitmap.createScaledBitmap(bitmap, size[0],
+				size[1], true);
+
+		File file = new File(dir, UUID.randomUUID() + ".jpg");
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				if (!scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out))
+					throw new IOException("Unable to compress picture");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			delete(file);
+			throw e;
+		} finally {
+			if (scaled != bitmap)
+				scaled.recycle();
+		}
+
+		log.debug("Saved {}x{} picture to {} ({} bytes)", size[0], size[1], file, file.length());
+		return file;
+	}
+
+	static int[] scale(int width, int height, int maxSize) {
+		int longest = Math.max(width, height);
+		if (maxSize <= 0 || longest <= maxSize)
+			return new int[] { width, height };
+
+		return new int[] { Math.max(1, (int)((long)width * maxSize / longest)), Math.max(1, (int)((long)height * maxSize / longest)) };
+	}
+
+	public static void delete(File file) {
+		if (file.exists() && !file.delete())
+			log.warn("Unable to delete {}", file);
+	}
+
+	public void clean(Collection<Event> pending) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+
+		Set<String> used = new HashSet<String>();
+		for (Event event : pending)
+			if (!event.picture.isEmpty())
+				used.add(new File(event.picture).getName());
+
+		for (File file : files)
+			if (!used.contains(file.getName()))
+				delete(file);
+	}
+}
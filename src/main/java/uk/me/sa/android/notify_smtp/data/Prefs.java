@@ -20,6 +20,8 @@ package uk.me.sa.android.notify_smtp.data;
 
 import java.util.Set;
 
+import org.androidannotations.annotations.sharedpreferences.DefaultInt;
+import org.androidannotations.annotations.sharedpreferences.DefaultString;
 import org.androidannotations.annotations.sharedpreferences.SharedPref;
 import org.androidannotations.annotations.sharedpreferences.SharedPref.Scope;
 
@@ -37,6 +39,9 @@ public interface Prefs {
 
 	int port();
 
+	@DefaultString("starttls_required")
+	String security();
+
 	String username();
 
 	String password();
@@ -44,4 +49,32 @@ public interface Prefs {
 	String sender();
 
 	String recipients();
+
+	boolean digest();
+
+	@DefaultInt(60)
+	int digestQuietPeriod();
+
+	@DefaultInt(20)
+	int digestMaxCount();
+
+	@DefaultInt(600)
+	int digestMaxAge();
+
+	@DefaultInt(60)
+	int keepAlive();
+
+	@DefaultInt(30)
+	int rateLimitPackage();
+
+	@DefaultInt(60)
+	int rateLimitGlobal();
+
+	@DefaultString("digest")
+	String rateLimitOverflow();
+
+	boolean attachPicture();
+
+	@DefaultInt(1024)
+	int pictureMaxSize();
 }
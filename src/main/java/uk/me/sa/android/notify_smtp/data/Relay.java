@@ -0,0 +1,82 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+public class Relay {
+	public final String node;
+	public final int port;
+
+	public Relay(String node, int port) {
+		this.node = node;
+		this.port = port;
+	}
+
+	static Relay parse(String value, int defaultPort) {
+		String node = value;
+		String port = null;
+
+		if (value.startsWith("[")) {
+			int end = value.indexOf(']');
+			if (end < 0)
+				return null;
+
+			node = value.substring(1, end);
+			if (value.length() > end + 1) {
+				if (value.charAt(end + 1) != ':')
+					return null;
+				port = value.substring(end + 2);
+			}
+		} else if (value.indexOf(':') >= 0 && value.indexOf(':') == value.lastIndexOf(':')) {
+			node = value.substring(0, value.indexOf(':'));
+			port = value.substring(value.indexOf(':') + 1);
+		}
+
+		if (node.isEmpty())
+			return null;
+
+		if (port == null)
+			return new Relay(node, defaultPort);
+
+		try {
+			int number = Integer.parseInt(port);
+			return number > 0 && number <= 65535 ? new Relay(node, number) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Relay))
+			return false;
+
+		Relay other = (Relay)obj;
+		return node.equals(other.node) && port == other.port;
+	}
+
+	@Override
+	public int hashCode() {
+		return node.hashCode() * 31 + port;
+	}
+
+	@Override
+	public String toString() {
+		return (node.indexOf(':') >= 0 ? "[" + node + "]" : node) + ":" + port;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.util.regex.Pattern;
+
+import android.app.Notification;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.service.notification.StatusBarNotification;
+
+public class Rule {
+	private static final String EXTRA_MESSAGES = "android.messages";
+	private static final String MESSAGE_SENDER = "sender";
+	private static final String MESSAGE_TEXT = "text";
+
+	public final String packageName;
+	public final String category;
+	public final int icon;
+	public final Pattern title;
+	public final Pattern text;
+	public final String subject;
+
+	public Rule(String packageName, String category, int icon, Pattern title, Pattern text, String subject) {
+		if (subject == null || subject.isEmpty())
+			throw new IllegalArgumentException("No subject");
+
+		this.packageName = packageName;
+		this.category = category;
+		this.icon = icon;
+		this.title = title;
+		this.text = text;
+		this.subject = subject;
+	}
+
+	public boolean matches(StatusBarNotification sbn) {
+		Notification n = sbn.getNotification();
+
+		if (packageName != null && !packageName.equals(sbn.getPackageName()))
+			return false;
+
+		if (icon != 0 && n.icon != icon)
+			return false;
+
+		if (category != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && !category.equals(n.category))
+			return false;
+
+		if (title != null && !title.matcher(extra(n, Notification.EXTRA_TITLE)).find())
+			return false;
+
+		if (text != null && !text.matcher(extra(n, Notification.EXTRA_TEXT)).find())
+			return false;
+
+		return true;
+	}
+
+	public String subject(StatusBarNotification sbn) {
+		if (subject.indexOf('{') < 0)
+			return subject;
+
+		Notification n = sbn.getNotification();
+		return subject.replace("{title}", extra(n, Notification.EXTRA_TITLE)).replace("{text}", extra(n, Notification.EXTRA_TEXT))
+				.replace("{package}", sbn.getPackageName());
+	}
+
+	public String content(StatusBarNotification sbn) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+			return "";
+
+		Notification n = sbn.getNotification();
+		if (n.extras == null)
+			return "";
+
+		StringBuilder sb = new StringBuilder();
+		line(sb, extra(n, Notification.EXTRA_TITLE));
+
+		String text = extra(n, Notification.EXTRA_BIG_TEXT);
+		line(sb, text.isEmpty() ? extra(n, Notification.EXTRA_TEXT) : text);
+
+		CharSequence[] lines = n.extras.getCharSequenceArray(Notification.EXTRA_TEXT_LINES);
+		if (lines != null)
+			for (CharSequence line : lines)
+				line(sb, line);
+
+		Parcelable[] messages = n.extras.getParcelableArray(EXTRA_MESSAGES);
+		if (messages != null) {
+			for (Parcelable message : messages) {
+				if (message instanceof Bundle) {
+					Bundle bundle = (Bundle)message;
+					CharSequence sender = bundle.getCharSequence(MESSAGE_SENDER);
+					CharSequence value = bundle.getCharSequence(MESSAGE_TEXT);
+					if (value != null)
+						line(sb, sender != null ? sender + ": " + value : value);
+				}
+			}
+		}
+
+		return sb.toString();
+	}
+
+	public Bitmap picture(StatusBarNotification sbn) {
+		Notification n = sbn.getNotification();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && n.extras != null) {
+			Parcelable picture = n.extras.getParcelable(Notification.EXTRA_PICTURE);
+			if (picture instanceof Bitmap)
+				return (Bitmap)picture;
+		}
+		return n.largeIcon;
+	}
+
+	private static void line(StringBuilder sb, CharSequence line) {
+		if (line == null || line.length() == 0)
+			return;
+
+		if (sb.length() > 0)
+			sb.append("\n");
+		sb.append(line);
+	}
+
+	private static String extra(Notification n, String key) {
+		Bundle extras = n.extras;
+		if (extras == null)
+			return "";
+
+		CharSequence value = extras.getCharSequence(key);
+		return value != null ? value.toString() : "";
+	}
+
+	@Override
+	public String toString() {
+		return "Rule[" + (packageName != null ? packageName : "*") + "]: " + subject;
+	}
+}
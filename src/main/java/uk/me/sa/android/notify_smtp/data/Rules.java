@@ -0,0 +1,119 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.service.notification.StatusBarNotification;
+
+public class Rules {
+	private static final Logger log = LoggerFactory.getLogger(Rules.class);
+
+	private final Map<String, List<Rule>> byPackage = new HashMap<String, List<Rule>>();
+	private final List<Rule> anyPackage = new ArrayList<Rule>();
+
+	public Rules(Resources resources, int id) {
+		this(parse(resources, id));
+	}
+
+	Rules(List<Rule> rules) {
+		for (Rule rule : rules) {
+			if (rule.packageName != null && !byPackage.containsKey(rule.packageName))
+				byPackage.put(rule.packageName, new ArrayList<Rule>());
+		}
+
+		for (Rule rule : rules) {
+			if (rule.packageName == null) {
+				anyPackage.add(rule);
+				for (List<Rule> packageRules : byPackage.values())
+					packageRules.add(rule);
+			} else {
+				byPackage.get(rule.packageName).add(rule);
+			}
+		}
+
+		log.info("Loaded {} rule(s) for {} package(s)", rules.size(), byPackage.size());
+	}
+
+	public Rule match(StatusBarNotification sbn) {
+		List<Rule> rules = byPackage.get(sbn.getPackageName());
+		if (rules == null)
+			rules = anyPackage;
+
+		for (Rule rule : rules)
+			if (rule.matches(sbn))
+				return rule;
+
+		return null;
+	}
+
+	private static List<Rule> parse(Resources resources, int id) {
+		List<Rule> rules = new ArrayList<Rule>();
+		XmlResourceParser parser = resources.getXml(id);
+		try {
+			int type;
+			while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (type != XmlPullParser.START_TAG || !parser.getName().equals("rule"))
+					continue;
+
+				try {
+					rules.add(new Rule(parser.getAttributeValue(null, "package"), parser.getAttributeValue(null, "category"),
+							parser.getAttributeResourceValue(null, "icon", 0), pattern(parser.getAttributeValue(null, "title")),
+							pattern(parser.getAttributeValue(null, "text")), string(resources, parser, "subject")));
+				} catch (IllegalArgumentException e) {
+					log.error("Invalid rule at {}", parser.getPositionDescription(), e);
+				}
+			}
+		} catch (XmlPullParserException e) {
+			log.error("Unable to parse rules", e);
+		} catch (IOException e) {
+			log.error("Unable to read rules", e);
+		} finally {
+			parser.close();
+		}
+		return Collections.unmodifiableList(rules);
+	}
+
+	private static Pattern pattern(String regex) {
+		try {
+			return regex != null ? Pattern.compile(regex) : null;
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static String string(Resources resources, XmlResourceParser parser, String name) {
+		int id = parser.getAttributeResourceValue(null, name, 0);
+		return id != 0 ? resources.getString(id) : parser.getAttributeValue(null, name);
+	}
+}
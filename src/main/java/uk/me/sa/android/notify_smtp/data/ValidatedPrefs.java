@@ -20,43 +20,89 @@ package uk.me.sa.android.notify_smtp.data;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ValidatedPrefs {
 	private static final Logger log = LoggerFactory.getLogger(ValidatedPrefs.class);
+	private static final int MINUTES_PER_DAY = (int)TimeUnit.MINUTES.convert(1, TimeUnit.DAYS);
+	private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+	private static final long MS_PER_MINUTE = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+	private static final int EPOCH_MINUTE_OF_WEEK = (Calendar.THURSDAY - Calendar.SUNDAY) * MINUTES_PER_DAY;
+	public static final int RATE_LIMIT_MAX = 3600;
 
-	private Set<String> days;
-	private String startTime;
-	private String stopTime;
+	private final String startTime;
+	private final String stopTime;
+	private final boolean complete;
+	private final BitSet schedule;
+	public final boolean enabled;
 	public final String node;
 	public final int port;
+	public final List<Relay> relays;
+	public final SecurityMode security;
 	public final String username;
 	public final String password;
 	public final String sender;
-	public final Set<String> recipients = new LinkedHashSet<String>();
+	public final Set<String> recipients;
+	public final boolean digest;
+	public final long digestQuietMs;
+	public final int digestMaxCount;
+	public final long digestMaxAgeMs;
+	public final long keepAliveMs;
+	public final int rateLimitPackage;
+	public final int rateLimitGlobal;
+	public final RateLimitOverflow rateLimitOverflow;
+	public final boolean attachPicture;
+	public final int pictureMaxSize;
 
 	public ValidatedPrefs(Prefs_ prefs) {
-		days = prefs.days().get();
+		enabled = prefs.enabled().get();
+		Set<String> days = prefs.days().get();
 		startTime = prefs.startTime().get();
 		stopTime = prefs.stopTime().get();
 		node = prefs.node().get();
 		port = prefs.port().get();
+		security = parseSecurity(prefs.security().get());
+		relays = parseRelays(node, port);
 		username = prefs.username().get();
 		password = prefs.password().get();
 		sender = prefs.sender().get();
-		recipients.addAll(Arrays.asList(prefs.recipients().get().split(" ")));
+		Set<String> recipients = new LinkedHashSet<String>(Arrays.asList(prefs.recipients().get().split(" ")));
 		recipients.remove("");
+		this.recipients = Collections.unmodifiableSet(recipients);
+		digest = prefs.digest().get();
+		digestQuietMs = TimeUnit.MILLISECONDS.convert(Math.max(prefs.digestQuietPeriod().get(), 0), TimeUnit.SECONDS);
+		digestMaxCount = Math.max(prefs.digestMaxCount().get(), 1);
+		digestMaxAgeMs = TimeUnit.MILLISECONDS.convert(Math.max(prefs.digestMaxAge().get(), 0), TimeUnit.SECONDS);
+		keepAliveMs = TimeUnit.MILLISECONDS.convert(Math.max(prefs.keepAlive().get(), 0), TimeUnit.SECONDS);
+		rateLimitPackage = Math.min(Math.max(prefs.rateLimitPackage().get(), 0), RATE_LIMIT_MAX);
+		rateLimitGlobal = Math.min(Math.max(prefs.rateLimitGlobal().get(), 0), RATE_LIMIT_MAX);
+		rateLimitOverflow = parseOverflow(prefs.rateLimitOverflow().get());
+		attachPicture = prefs.attachPicture().get();
+		pictureMaxSize = Math.max(prefs.pictureMaxSize().get(), 0);
+
+		complete = checkAllPrefs();
+		schedule = complete ? compileSchedule(days != null ? days : Collections.<String>emptySet(), startTime, stopTime) : null;
 	}
 
 	public boolean hasAllPrefs() {
+		return complete;
+	}
+
+	private boolean checkAllPrefs() {
 		if (startTime.isEmpty()) {
 			log.warn("startTime missing");
 			return false;
@@ -77,6 +123,16 @@ public class ValidatedPrefs {
 			return false;
 		}
 
+		if (relays.isEmpty()) {
+			log.warn("node invalid");
+			return false;
+		}
+
+		if (security == null) {
+			log.warn("security invalid");
+			return false;
+		}
+
 		if (username.isEmpty()) {
 			log.warn("username missing");
 			return false;
@@ -100,43 +156,104 @@ public class ValidatedPrefs {
 		return true;
 	}
 
-	public boolean isActiveAt(Date ts) {
-		if (!hasAllPrefs())
-			return false;
-
-		Calendar c = Calendar.getInstance(Locale.ENGLISH);
-		c.setTime(ts);
-		final int dowEvent = c.get(Calendar.DAY_OF_WEEK);
-		final int hEvent = c.get(Calendar.HOUR_OF_DAY);
-		final int mEvent = c.get(Calendar.MINUTE);
+	private static List<Relay> parseRelays(String node, int port) {
+		List<Relay> relays = new ArrayList<Relay>();
+		for (String value : node.trim().split("\\s+")) {
+			if (value.isEmpty())
+				continue;
 
-		if (!days.contains(String.valueOf(dowEvent)))
-			return false;
+			Relay relay = Relay.parse(value, port);
+			if (relay == null) {
+				log.warn("node invalid: {}", value);
+				return Collections.emptyList();
+			}
+			relays.add(relay);
+		}
+		return Collections.unmodifiableList(relays);
+	}
 
+	private static SecurityMode parseSecurity(String value) {
 		try {
-			c.setTime(new SimpleDateFormat("HH:mm", Locale.ENGLISH).parse(startTime));
-		} catch (ParseException e) {
-			log.warn("startTime invalid: {}", startTime);
-			return false;
+			return SecurityMode.valueOf(value.toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			return null;
 		}
-		final int hStart = c.get(Calendar.HOUR_OF_DAY);
-		final int mStart = c.get(Calendar.MINUTE);
+	}
 
-		if (hEvent < hStart || (hEvent == hStart && mEvent < mStart))
-			return false;
+	private static RateLimitOverflow parseOverflow(String value) {
+		try {
+			return RateLimitOverflow.valueOf(value.toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			log.warn("rateLimitOverflow invalid: {}", value);
+			return RateLimitOverflow.DIGEST;
+		}
+	}
 
+	private static int parseTime(String name, String value) {
+		Calendar c = Calendar.getInstance(Locale.ENGLISH);
 		try {
-			c.setTime(new SimpleDateFormat("HH:mm", Locale.ENGLISH).parse(stopTime));
+			c.setTime(new SimpleDateFormat("HH:mm", Locale.ENGLISH).parse(value));
 		} catch (ParseException e) {
-			log.warn("stopTime invalid: {}", startTime);
-			return false;
+			log.warn("{} invalid: {}", name, value);
+			return -1;
+		}
+		return c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+	}
+
+	private static BitSet compileSchedule(Set<String> days, String startTime, String stopTime) {
+		String[] starts = startTime.trim().split("\\s+");
+		String[] stops = stopTime.trim().split("\\s+");
+		if (starts.length != stops.length) {
+			log.warn("startTime/stopTime mismatch: {} / {}", startTime, stopTime);
+			return null;
 		}
-		final int hStop = c.get(Calendar.HOUR_OF_DAY);
-		final int mStop = c.get(Calendar.MINUTE);
 
-		if (hEvent > hStop || (hEvent == hStop && mEvent > mStop))
+		BitSet schedule = new BitSet(MINUTES_PER_WEEK);
+		for (int i = 0; i < starts.length; i++) {
+			int start = parseTime("startTime", starts[i]);
+			int stop = parseTime("stopTime", stops[i]);
+			if (start < 0 || stop < 0)
+				return null;
+
+			int length = (stop >= start ? stop - start : stop + MINUTES_PER_DAY - start) + 1;
+			for (String day : days) {
+				int dow;
+				try {
+					dow = Integer.parseInt(day);
+				} catch (NumberFormatException e) {
+					dow = 0;
+				}
+				if (dow < Calendar.SUNDAY || dow > Calendar.SATURDAY) {
+					log.warn("day invalid: {}", day);
+					continue;
+				}
+
+				int from = (dow - Calendar.SUNDAY) * MINUTES_PER_DAY + start;
+				int to = from + length;
+				if (to <= MINUTES_PER_WEEK) {
+					schedule.set(from, to);
+				} else {
+					schedule.set(from, MINUTES_PER_WEEK);
+					schedule.set(0, to - MINUTES_PER_WEEK);
+				}
+			}
+		}
+		return schedule;
+	}
+
+	public boolean isActiveAt(Date ts) {
+		if (schedule == null)
 			return false;
 
-		return true;
+		long local = ts.getTime() + TimeZone.getDefault().getOffset(ts.getTime());
+		long minute = local / MS_PER_MINUTE;
+		if (local % MS_PER_MINUTE < 0)
+			minute--;
+
+		int minuteOfWeek = (int)((minute + EPOCH_MINUTE_OF_WEEK) % MINUTES_PER_WEEK);
+		if (minuteOfWeek < 0)
+			minuteOfWeek += MINUTES_PER_WEEK;
+
+		return schedule.get(minuteOfWeek);
 	}
 }
@@ -0,0 +1,79 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.util.LatencyHistogram;
+
+public class AdaptiveTimeouts {
+	private static final Logger log = LoggerFactory.getLogger(AdaptiveTimeouts.class);
+	static final int MIN_MS = (int)TimeUnit.MILLISECONDS.convert(3, TimeUnit.SECONDS);
+	static final int MAX_MS = (int)TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
+	static final int SAMPLES = 50;
+	static final int MIN_SAMPLES = 5;
+	static final double PERCENTILE = 0.95;
+	static final int MULTIPLIER = 4;
+
+	public enum Phase {
+		CONNECT, GREETING, TLS, AUTH, DATA_END
+	}
+
+	private final Map<Phase, LatencyHistogram> latency = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+
+	public AdaptiveTimeouts() {
+		for (Phase phase : Phase.values())
+			latency.put(phase, new LatencyHistogram(SAMPLES));
+	}
+
+	public int get(Phase phase) {
+		LatencyHistogram histogram = latency.get(phase);
+		if (histogram.getCount() < MIN_SAMPLES)
+			return MAX_MS;
+
+		long ms = histogram.percentile(PERCENTILE);
+		if (ms >= MAX_MS / MULTIPLIER)
+			return MAX_MS;
+
+		return Math.max(MIN_MS, (int)ms * MULTIPLIER);
+	}
+
+	public void success(Phase phase, long ms) {
+		latency.get(phase).add(ms);
+	}
+
+	public void timeout(Phase phase, int timeoutMs) {
+		log.warn("{} timed out after {}ms", phase, timeoutMs);
+
+		// Earlier samples may be from a different network, so start again
+		// from the maximum instead of waiting for the percentile to move
+		LatencyHistogram histogram = latency.get(phase);
+		histogram.clear();
+		histogram.add(timeoutMs);
+	}
+
+	public LatencyHistogram getLatency(Phase phase) {
+		return latency.get(phase);
+	}
+}
@@ -18,40 +18,174 @@
  */
 package uk.me.sa.android.notify_smtp.net;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
 
 import org.apache.commons.net.ProtocolCommandEvent;
 import org.apache.commons.net.ProtocolCommandListener;
+import org.apache.commons.net.io.DotTerminatedMessageWriter;
 import org.apache.commons.net.smtp.AuthenticatingSMTPClient;
 import org.apache.commons.net.smtp.SMTPReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.me.sa.android.notify_smtp.net.AdaptiveTimeouts.Phase;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 public class AuthSMTPTLSClient extends AuthenticatingSMTPClient implements ProtocolCommandListener {
 	private static final Logger log = LoggerFactory.getLogger(AuthSMTPTLSClient.class);
 
+	private final TLSSessions sessions;
+	private final Set<String> extensions = new HashSet<String>();
+	private final List<String> rejected = new ArrayList<String>();
+	private SMTPReplyException rejectedFailure;
 	private String command;
+	private long commandStart;
+	private CommandLatency latency;
+	private HappyEyeballs eyeballs;
+	private DnsCache dns;
+	private String networkKey;
+	private AdaptiveTimeouts timeouts;
 
-	public AuthSMTPTLSClient() throws NoSuchAlgorithmException {
-		super("TLS", true, "UTF-8");
+	public AuthSMTPTLSClient(TLSSessions sessions, boolean implicit) throws NoSuchAlgorithmException, KeyManagementException {
+		super(implicit, sessions.getContext());
+		this.sessions = sessions;
+		setCharset(StandardCharsets.UTF_8);
 		setHostnameVerifier(HttpsURLConnection.getDefaultHostnameVerifier());
 		addProtocolCommandListener(this);
 	}
 
+	public void setHappyEyeballs(HappyEyeballs eyeballs, DnsCache dns, String networkKey) {
+		this.eyeballs = eyeballs;
+		this.dns = dns;
+		this.networkKey = networkKey;
+	}
+
+	public void setTimeouts(AdaptiveTimeouts timeouts) {
+		this.timeouts = timeouts;
+	}
+
+	public void setLatency(CommandLatency latency) {
+		this.latency = latency;
+	}
+
+	@Override
+	public void connect(String hostname, int port) throws IOException {
+		commandStart = System.nanoTime();
+		if (eyeballs == null) {
+			super.connect(hostname, port);
+			return;
+		}
+
+		_hostname_ = hostname;
+		InetAddress[] addresses = dns.resolve(networkKey, hostname);
+		int timeout = timeouts != null ? timeouts.get(Phase.CONNECT) : connectTimeout;
+		long start = System.nanoTime();
+		try {
+			_socket_ = eyeballs.connect(_socketFactory_, networkKey, addresses, port, timeout);
+		} catch (SocketTimeoutException e) {
+			timedOut(Phase.CONNECT);
+			throw e;
+		}
+		end(Phase.CONNECT, start, true);
+		_connectAction_();
+	}
+
 	@Override
 	protected void _connectAction_() throws IOException {
 		command = "CONN";
-		super._connectAction_();
+		long start = System.currentTimeMillis();
+		// The socket timeout is set from _timeout_ before reading the greeting,
+		// restore it afterwards so that other commands use the default
+		int timeout = _timeout_;
+		if (timeouts != null)
+			_timeout_ = timeouts.get(Phase.GREETING);
+		long greeting = System.nanoTime();
+		try {
+			super._connectAction_();
+		} catch (SocketTimeoutException e) {
+			timedOut(Phase.GREETING);
+			throw e;
+		} finally {
+			_timeout_ = timeout;
+		}
+		end(Phase.GREETING, greeting, SMTPReply.isPositiveCompletion(getReplyCode()));
+		if (_socket_ instanceof SSLSocket)
+			sessions.handshake((SSLSocket)_socket_, start);
+	}
+
+	private long begin(Phase phase) {
+		if (timeouts != null)
+			setTimeout(timeouts.get(phase));
+		return System.nanoTime();
+	}
+
+	private void end(Phase phase, long start, boolean ok) {
+		if (timeouts == null)
+			return;
+
+		if (ok)
+			timeouts.success(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		setTimeout(_timeout_);
+	}
+
+	private void timedOut(Phase phase) {
+		if (timeouts != null)
+			timeouts.timeout(phase, timeouts.get(phase));
+	}
+
+	private void setTimeout(int timeout) {
+		if (_socket_ == null || _socket_.isClosed())
+			return;
+
+		try {
+			_socket_.setSoTimeout(timeout);
+		} catch (SocketException e) {
+			log.warn("Unable to set timeout", e);
+		}
+	}
+
+	@Override
+	public boolean execTLS() throws IOException {
+		long start = System.currentTimeMillis();
+		long tls = begin(Phase.TLS);
+		boolean ok = false;
+		try {
+			ok = super.execTLS();
+		} catch (SocketTimeoutException e) {
+			timedOut(Phase.TLS);
+			throw e;
+		} finally {
+			end(Phase.TLS, tls, ok);
+		}
+		if (!ok)
+			return false;
+
+		sessions.handshake((SSLSocket)_socket_, start);
+		return true;
 	}
 
 	@SuppressFBWarnings("DE_MIGHT_IGNORE")
@@ -76,12 +210,134 @@ public class AuthSMTPTLSClient extends AuthenticatingSMTPClient implements Proto
 		}
 	}
 
+	@Override
+	public boolean elogin(String hostname) throws IOException {
+		extensions.clear();
+		if (!super.elogin(hostname))
+			return false;
+
+		String[] lines = getReplyStrings();
+		for (int i = 1; i < lines.length; i++)
+			if (lines[i].length() > 4)
+				extensions.add(lines[i].substring(4).trim().split(" ")[0].toUpperCase(Locale.ENGLISH));
+		return true;
+	}
+
+	public boolean hasExtension(String name) {
+		return extensions.contains(name);
+	}
+
+	private void reject(String recipient, int code) {
+		log.warn("Recipient {} rejected: {}", recipient, code);
+		rejected.add(recipient);
+
+		// Report a temporary failure in preference to a permanent one so that the email is retried
+		if (rejectedFailure == null || rejectedFailure.isPermanent())
+			rejectedFailure = new SMTPReplyException("RCPT", code);
+	}
+
+	public List<String> getRejectedRecipients() {
+		return new ArrayList<String>(rejected);
+	}
+
+	public Writer startMessage(String sender, Collection<String> recipients) throws IOException {
+		rejected.clear();
+		rejectedFailure = null;
+
+		if (!hasExtension("PIPELINING")) {
+			if (!setSender(sender))
+				throw new SMTPReplyException("MAIL", getReplyCode());
+
+			for (String recipient : recipients)
+				if (!addRecipient(recipient))
+					reject(recipient, getReplyCode());
+
+			if (rejectedFailure != null && rejected.size() == recipients.size())
+				throw rejectedFailure;
+
+			Writer writer = sendMessageData();
+			if (writer == null)
+				throw new SMTPReplyException("DATA", getReplyCode());
+			return writer;
+		}
+
+		List<String> commands = new ArrayList<String>();
+		commands.add("MAIL FROM:<" + sender + ">");
+		for (String recipient : recipients)
+			commands.add("RCPT TO:<" + recipient + ">");
+		commands.add("DATA");
+
+		StringBuilder sb = new StringBuilder();
+		for (String line : commands)
+			sb.append(line).append("\r\n");
+		_output_.write(sb.toString().getBytes(encoding));
+		_output_.flush();
+
+		for (String line : commands)
+			fireCommandSent(line.substring(0, 4), line + "\r\n");
+
+		SMTPReplyException failure = null;
+		command = "MAIL";
+		if (!SMTPReply.isPositiveCompletion(getReply()))
+			failure = new SMTPReplyException(command, getReplyCode());
+
+		command = "RCPT";
+		for (String recipient : recipients)
+			if (!SMTPReply.isPositiveCompletion(getReply()) && failure == null)
+				reject(recipient, getReplyCode());
+
+		if (failure == null && rejectedFailure != null && rejected.size() == recipients.size())
+			failure = rejectedFailure;
+
+		command = "DATA";
+		if (!SMTPReply.isPositiveIntermediate(getReply()) && failure == null)
+			failure = new SMTPReplyException(command, getReplyCode());
+
+		if (failure != null) {
+			// DATA was accepted for the remaining recipients, so the connection can't be reset
+			if (SMTPReply.isPositiveIntermediate(getReplyCode()))
+				disconnect();
+			throw failure;
+		}
+
+		return new DotTerminatedMessageWriter(new BufferedWriter(new OutputStreamWriter(_output_, encoding)));
+	}
+
+	@Override
+	public boolean completePendingCommand() throws IOException {
+		command = "EOM";
+		commandStart = System.nanoTime();
+		long start = begin(Phase.DATA_END);
+		boolean ok = false;
+		try {
+			ok = super.completePendingCommand();
+		} catch (SocketTimeoutException e) {
+			timedOut(Phase.DATA_END);
+			throw e;
+		} finally {
+			end(Phase.DATA_END, start, ok);
+		}
+		return ok;
+	}
+
 	@Override
 	public boolean auth(AUTH_METHOD method, String username, String password)
 			throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidKeySpecException {
 		removeProtocolCommandListener(this);
 
-		boolean ok = super.auth(method, username, password);
+		long start = begin(Phase.AUTH);
+		boolean ok = false;
+		try {
+			ok = super.auth(method, username, password);
+		} catch (SocketTimeoutException e) {
+			timedOut(Phase.AUTH);
+			throw e;
+		} finally {
+			end(Phase.AUTH, start, ok);
+		}
+		if (latency != null)
+			latency.record("AUTH", System.nanoTime() - start);
+
 		if (SMTPReply.isPositiveCompletion(getReplyCode())) {
 			log.info("AUTH {}", getReplyStrings()[0]);
 		} else {
@@ -95,10 +351,14 @@ public class AuthSMTPTLSClient extends AuthenticatingSMTPClient implements Proto
 	@Override
 	public void protocolCommandSent(ProtocolCommandEvent event) {
 		command = event.getCommand();
+		commandStart = System.nanoTime();
 	}
 
 	@Override
 	public void protocolReplyReceived(ProtocolCommandEvent event) {
+		if (latency != null)
+			latency.record(command, System.nanoTime() - commandStart);
+
 		if (SMTPReply.isPositiveCompletion(event.getReplyCode())) {
 			log.info("{} {}", command, getReplyStrings()[0]);
 		} else {
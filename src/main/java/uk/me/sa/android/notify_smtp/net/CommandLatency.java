@@ -0,0 +1,180 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.util.DataFiles;
+import uk.me.sa.android.notify_smtp.util.LatencyHistogram;
+
+public class CommandLatency {
+	private static final Logger log = LoggerFactory.getLogger(CommandLatency.class);
+	private static final int VERSION = 1;
+	public static final String FILENAME = "latency";
+
+	private final File file;
+	private final ConcurrentMap<String, Histogram> commands = new ConcurrentHashMap<String, Histogram>();
+
+	public static class Histogram {
+		private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.getBuckets());
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void add(long nanos) {
+			counts.incrementAndGet(LatencyHistogram.getBucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+
+			long max;
+			do {
+				max = maxNanos.get();
+			} while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getMeanMs() {
+			long n = count.get();
+			return n > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / n) : 0;
+		}
+
+		public long getMaxMs() {
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+		}
+
+		public long percentileMs(double p) {
+			long target = (long)Math.ceil(p * count.get());
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= target)
+					return Math.min(LatencyHistogram.getBound(i), getMaxMs());
+			}
+			return getMaxMs();
+		}
+	}
+
+	public CommandLatency(File file) {
+		this.file = file;
+		load();
+	}
+
+	private Histogram get(String command) {
+		Histogram histogram = commands.get(command);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = commands.putIfAbsent(command, created);
+			if (histogram == null)
+				histogram = created;
+		}
+		return histogram;
+	}
+
+	public void record(String command, long nanos) {
+		get(command).add(nanos);
+	}
+
+	public SortedMap<String, Histogram> getCommands() {
+		return new TreeMap<String, Histogram>(commands);
+	}
+
+	private void load() {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+
+		try {
+			int version = in.readInt();
+			if (version != VERSION) {
+				log.warn("Discarding latency stats with unknown version {}", version);
+				return;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Histogram histogram = get(in.readUTF());
+				histogram.count.set(in.readLong());
+				histogram.totalNanos.set(in.readLong());
+				histogram.maxNanos.set(in.readLong());
+
+				int buckets = in.readInt();
+				for (int j = 0; j < buckets; j++) {
+					long value = in.readLong();
+					if (j < histogram.counts.length())
+						histogram.counts.set(j, value);
+				}
+			}
+		} catch (EOFException e) {
+			log.warn("Latency stats truncated");
+		} catch (IOException e) {
+			log.error("Unable to read latency stats", e);
+		} finally {
+			DataFiles.close(in);
+		}
+	}
+
+	public synchronized void save() {
+		try {
+			DataFiles.replace(file, new DataFiles.Writer() {
+				@Override
+				public void writeTo(DataOutputStream out) throws IOException {
+					Map<String, Histogram> snapshot = getCommands();
+					out.writeInt(VERSION);
+					out.writeInt(snapshot.size());
+					for (Map.Entry<String, Histogram> entry : snapshot.entrySet()) {
+						Histogram histogram = entry.getValue();
+						out.writeUTF(entry.getKey());
+						out.writeLong(histogram.count.get());
+						out.writeLong(histogram.totalNanos.get());
+						out.writeLong(histogram.maxNanos.get());
+						out.writeInt(histogram.counts.length());
+						for (int i = 0; i < histogram.counts.length(); i++)
+							out.writeLong(histogram.counts.get(i));
+					}
+				}
+			});
+		} catch (IOException e) {
+			log.error("Unable to save latency stats", e);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DnsCache {
+	private static final Logger log = LoggerFactory.getLogger(DnsCache.class);
+	static final long TTL_MS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private int hits;
+	private int misses;
+
+	private static class Entry {
+		final String networkKey;
+		final InetAddress[] addresses;
+		final long expires;
+
+		Entry(String networkKey, InetAddress[] addresses, long expires) {
+			this.networkKey = networkKey;
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+
+	long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	InetAddress[] lookup(String hostname) throws UnknownHostException {
+		return InetAddress.getAllByName(hostname);
+	}
+
+	public InetAddress[] resolve(String networkKey, String hostname) throws UnknownHostException {
+		synchronized (this) {
+			Entry entry = entries.get(hostname);
+			if (entry != null && entry.networkKey.equals(networkKey) && now() < entry.expires) {
+				hits++;
+				return entry.addresses.clone();
+			}
+			misses++;
+		}
+
+		InetAddress[] addresses = lookup(hostname);
+		log.debug("Resolved {} to {} address(es)", hostname, addresses.length);
+
+		synchronized (this) {
+			entries.put(hostname, new Entry(networkKey, addresses.clone(), now() + TTL_MS));
+		}
+		return addresses;
+	}
+
+	public synchronized void remove(String hostname) {
+		entries.remove(hostname);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+}
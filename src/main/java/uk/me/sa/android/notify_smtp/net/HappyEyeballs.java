@@ -0,0 +1,196 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class HappyEyeballs {
+	private static final Logger log = LoggerFactory.getLogger(HappyEyeballs.class);
+	static final long ATTEMPT_DELAY_MS = 250;
+
+	private final Map<String, Boolean> preferIPv6 = new HashMap<String, Boolean>();
+
+	synchronized List<InetAddress> order(String networkKey, InetAddress[] addresses) {
+		Boolean ipv6 = preferIPv6.get(networkKey);
+		boolean ipv6First = ipv6 == null || ipv6;
+
+		LinkedList<InetAddress> preferred = new LinkedList<InetAddress>();
+		LinkedList<InetAddress> other = new LinkedList<InetAddress>();
+		for (InetAddress address : addresses) {
+			if ((address instanceof Inet6Address) == ipv6First) {
+				preferred.add(address);
+			} else {
+				other.add(address);
+			}
+		}
+
+		List<InetAddress> ordered = new ArrayList<InetAddress>(addresses.length);
+		while (!preferred.isEmpty() || !other.isEmpty()) {
+			if (!preferred.isEmpty())
+				ordered.add(preferred.remove());
+			if (!other.isEmpty())
+				ordered.add(other.remove());
+		}
+		return ordered;
+	}
+
+	private synchronized void connected(String networkKey, InetAddress address) {
+		preferIPv6.put(networkKey, address instanceof Inet6Address);
+	}
+
+	public Socket connect(SocketFactory factory, String networkKey, InetAddress[] addresses, int port, int timeoutMs) throws IOException {
+		List<InetAddress> ordered = order(networkKey, addresses);
+		if (ordered.isEmpty())
+			throw new IOException("No addresses");
+
+		Attempts attempts = new Attempts(factory, port, timeoutMs);
+		try {
+			Socket socket = attempts.race(ordered);
+			connected(networkKey, socket.getInetAddress());
+			return socket;
+		} finally {
+			attempts.finish();
+		}
+	}
+
+	private static class Attempts {
+		private final SocketFactory factory;
+		private final int port;
+		private final int timeoutMs;
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		private final CompletionService<Socket> completion = new ExecutorCompletionService<Socket>(executor);
+		private final List<Socket> sockets = new ArrayList<Socket>();
+		private Socket winner;
+		private boolean finished;
+
+		Attempts(SocketFactory factory, int port, int timeoutMs) {
+			this.factory = factory;
+			this.port = port;
+			this.timeoutMs = timeoutMs;
+		}
+
+		Socket race(List<InetAddress> addresses) throws IOException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs > 0 ? timeoutMs : Integer.MAX_VALUE);
+			IOException failure = null;
+			int started = 0;
+			int failed = 0;
+
+			while (true) {
+				if (started < addresses.size())
+					start(addresses.get(started++));
+
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0)
+					throw new SocketTimeoutException("Connect timed out");
+
+				Future<Socket> future;
+				try {
+					future = completion.poll(started < addresses.size() ? Math.min(ATTEMPT_DELAY_MS, remaining) : remaining, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+
+				if (future == null)
+					continue;
+
+				try {
+					Socket socket = future.get();
+					synchronized (this) {
+						winner = socket;
+					}
+					return socket;
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					failure = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+					if (++failed == addresses.size())
+						throw failure;
+				}
+			}
+		}
+
+		private void start(final InetAddress address) {
+			log.debug("Connecting to {}", address);
+			completion.submit(new Callable<Socket>() {
+				@Override
+				public Socket call() throws IOException {
+					Socket socket = factory.createSocket();
+					synchronized (Attempts.this) {
+						if (finished) {
+							socket.close();
+							throw new IOException("Cancelled");
+						}
+						sockets.add(socket);
+					}
+
+					try {
+						socket.connect(new InetSocketAddress(address, port), timeoutMs);
+					} catch (IOException e) {
+						log.debug("Unable to connect to {}: {}", address, e.toString());
+						throw e;
+					}
+
+					synchronized (Attempts.this) {
+						if (finished && socket != winner)
+							socket.close();
+					}
+					return socket;
+				}
+			});
+		}
+
+		synchronized void finish() {
+			finished = true;
+			for (Socket socket : sockets) {
+				if (socket != winner) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						log.warn("Unable to close socket", e);
+					}
+				}
+			}
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+
+public class NetworkMonitor {
+	private static final Logger log = LoggerFactory.getLogger(NetworkMonitor.class);
+
+	public interface Listener {
+		void onNetworkAvailable();
+	}
+
+	private final ConnectivityManager cm;
+	private final Set<Network> networks = new HashSet<Network>();
+	private Listener listener;
+	private ConnectivityManager.NetworkCallback callback;
+
+	public NetworkMonitor(Context context) {
+		cm = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+	}
+
+	public synchronized void start(Listener listener) {
+		if (callback != null)
+			return;
+
+		this.listener = listener;
+		callback = new ConnectivityManager.NetworkCallback() {
+			@Override
+			public void onAvailable(Network network) {
+				available(network);
+			}
+
+			@Override
+			public void onLost(Network network) {
+				lost(network);
+			}
+		};
+		cm.registerNetworkCallback(new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(), callback);
+	}
+
+	public synchronized void stop() {
+		if (callback == null)
+			return;
+
+		cm.unregisterNetworkCallback(callback);
+		callback = null;
+		networks.clear();
+	}
+
+	public synchronized boolean isAvailable() {
+		return !networks.isEmpty();
+	}
+
+	public String getNetworkKey() {
+		NetworkInfo info = cm.getActiveNetworkInfo();
+		if (info == null)
+			return "";
+
+		return info.getTypeName() + ":" + info.getExtraInfo();
+	}
+
+	private void available(Network network) {
+		Listener listener;
+		synchronized (this) {
+			if (!networks.add(network))
+				return;
+
+			log.info("Network available: {}", network);
+			listener = this.listener;
+		}
+
+		listener.onNetworkAvailable();
+	}
+
+	private synchronized void lost(Network network) {
+		if (networks.remove(network))
+			log.info("Network lost: {}", network);
+	}
+}
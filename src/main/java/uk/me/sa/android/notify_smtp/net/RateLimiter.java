@@ -0,0 +1,239 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
+import uk.me.sa.android.notify_smtp.data.PictureStore;
+import uk.me.sa.android.notify_smtp.data.RateLimitOverflow;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+import uk.me.sa.android.notify_smtp.util.RetryScheduler;
+import uk.me.sa.android.notify_smtp.util.TokenBucket;
+
+public class RateLimiter {
+	private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+	private static final long MS_PER_HOUR = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+	private static final int BURST_MINUTES = 10;
+
+	private final SendQueue queue;
+	private final RetryScheduler scheduler;
+	private final Outbox store;
+
+	private final Map<String, TokenBucket> buckets = new HashMap<String, TokenBucket>();
+	private final Map<String, List<Event>> held = new LinkedHashMap<String, List<Event>>();
+	private TokenBucket global;
+	private int packageRate;
+	private int globalRate;
+	private ValidatedPrefs prefs;
+	private int releases;
+	private long releaseAt = Long.MAX_VALUE;
+
+	public RateLimiter(SendQueue queue, RetryScheduler scheduler, Outbox store) {
+		this.queue = queue;
+		this.scheduler = scheduler;
+		this.store = store;
+	}
+
+	long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	private static TokenBucket bucket(int perHour, long now) {
+		if (perHour <= 0)
+			return null;
+
+		return new TokenBucket(Math.max(1, perHour * BURST_MINUTES / 60), MS_PER_HOUR / perHour, now);
+	}
+
+	private void configure(ValidatedPrefs prefs, long now) {
+		this.prefs = prefs;
+
+		if (prefs.rateLimitPackage != packageRate) {
+			packageRate = prefs.rateLimitPackage;
+			buckets.clear();
+		}
+
+		if (prefs.rateLimitGlobal != globalRate) {
+			globalRate = prefs.rateLimitGlobal;
+			global = bucket(globalRate, now);
+		}
+	}
+
+	private TokenBucket packageBucket(String packageName, long now) {
+		if (packageRate <= 0)
+			return null;
+
+		TokenBucket bucket = buckets.get(packageName);
+		if (bucket == null) {
+			bucket = bucket(packageRate, now);
+			buckets.put(packageName, bucket);
+		}
+		return bucket;
+	}
+
+	private boolean take(String packageName, long now) {
+		TokenBucket bucket = packageBucket(packageName, now);
+		if ((bucket != null && !bucket.available(now)) || (global != null && !global.available(now)))
+			return false;
+
+		if (bucket != null)
+			bucket.take();
+		if (global != null)
+			global.take();
+		return true;
+	}
+
+	private long delay(String packageName, long now) {
+		TokenBucket bucket = packageBucket(packageName, now);
+		return Math.max(bucket != null ? bucket.delay(now) : 0, global != null ? global.delay(now) : 0);
+	}
+
+	public synchronized void add(ValidatedPrefs prefs, Event event) {
+		long now = now();
+		configure(prefs, now);
+
+		List<Event> waiting = held.get(event.packageName);
+		if (waiting == null && take(event.packageName, now)) {
+			queue.add(prefs, event);
+			return;
+		}
+
+		if (prefs.rateLimitOverflow == RateLimitOverflow.DROP) {
+			log.info("Rate limit exceeded, dropping {}", event);
+			deletePicture(event);
+			return;
+		}
+
+		log.info("Rate limit exceeded, holding {}", event);
+		store.add(event);
+		hold(event);
+		schedule(now);
+	}
+
+	public synchronized void replay(ValidatedPrefs prefs) {
+		long now = now();
+		configure(prefs, now);
+
+		List<Event> pending = store.pending();
+		if (pending.isEmpty())
+			return;
+
+		log.info("Restoring {} held email(s)", pending.size());
+		for (Event event : pending)
+			hold(event);
+		schedule(now);
+	}
+
+	private void hold(Event event) {
+		List<Event> waiting = held.get(event.packageName);
+		if (waiting == null) {
+			waiting = new ArrayList<Event>();
+			held.put(event.packageName, waiting);
+		}
+		waiting.add(event);
+	}
+
+	private void schedule(long now) {
+		if (held.isEmpty())
+			return;
+
+		long next = Long.MAX_VALUE;
+		for (String packageName : held.keySet())
+			next = Math.min(next, delay(packageName, now));
+
+		// A release that is already due no later than this will reschedule itself
+		if (now + next >= releaseAt)
+			return;
+
+		try {
+			scheduler.schedule(new Release(++releases), next);
+			releaseAt = now + next;
+		} catch (RejectedExecutionException e) {
+			log.error("Unable to schedule release of held emails", e);
+		}
+	}
+
+	private synchronized void release(int release) {
+		long now = now();
+		if (release == releases)
+			releaseAt = Long.MAX_VALUE;
+
+		Iterator<Map.Entry<String, List<Event>>> it = held.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, List<Event>> entry = it.next();
+			List<Event> waiting = entry.getValue();
+
+			if (prefs.rateLimitOverflow == RateLimitOverflow.DELAY) {
+				while (!waiting.isEmpty() && take(entry.getKey(), now)) {
+					Event event = waiting.remove(0);
+					queue.add(prefs, event);
+					store.remove(event, false);
+				}
+			} else if (take(entry.getKey(), now)) {
+				log.info("Coalescing {} held email(s) from {}", waiting.size(), entry.getKey());
+				Event event = Event.coalesce(waiting);
+				queue.add(prefs, event);
+				for (Event held : waiting)
+					store.remove(held, !held.picture.equals(event.picture));
+				waiting.clear();
+			}
+
+			if (waiting.isEmpty())
+				it.remove();
+		}
+
+		schedule(now);
+	}
+
+	private static void deletePicture(Event event) {
+		if (!event.picture.isEmpty())
+			PictureStore.delete(new File(event.picture));
+	}
+
+	private class Release implements Runnable {
+		private final int release;
+
+		Release(int release) {
+			this.release = release;
+		}
+
+		@Override
+		public void run() {
+			release(release);
+		}
+
+		@Override
+		public String toString() {
+			return "RateLimiter.Release";
+		}
+	}
+}
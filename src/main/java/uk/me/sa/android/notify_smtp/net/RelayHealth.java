@@ -0,0 +1,110 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import uk.me.sa.android.notify_smtp.data.Relay;
+
+public class RelayHealth {
+	static final long FAILURE_WINDOW_MS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+	private final Map<Relay, Status> status = new HashMap<Relay, Status>();
+
+	private static class Status {
+		int failures;
+		long lastFailure;
+		long latencyMs = -1;
+	}
+
+	long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	private Status get(Relay relay) {
+		Status s = status.get(relay);
+		if (s == null) {
+			s = new Status();
+			status.put(relay, s);
+		}
+		return s;
+	}
+
+	public synchronized List<Relay> order(List<Relay> relays) {
+		final long now = now();
+		final Map<Relay, Integer> failures = new HashMap<Relay, Integer>();
+		final Map<Relay, Long> latencies = new HashMap<Relay, Long>();
+		for (Relay relay : relays) {
+			failures.put(relay, getFailures(relay, now));
+			// Try relays with unknown latency so that they get measured
+			latencies.put(relay, Math.max(0, getLatency(relay)));
+		}
+
+		List<Relay> ordered = new ArrayList<Relay>(relays);
+		Collections.sort(ordered, new Comparator<Relay>() {
+			@Override
+			public int compare(Relay a, Relay b) {
+				int ret = failures.get(a).compareTo(failures.get(b));
+				if (ret == 0)
+					ret = latencies.get(a).compareTo(latencies.get(b));
+				return ret;
+			}
+		});
+		return ordered;
+	}
+
+	private int getFailures(Relay relay, long now) {
+		Status s = status.get(relay);
+		if (s == null || s.failures == 0)
+			return 0;
+
+		if (now - s.lastFailure >= FAILURE_WINDOW_MS) {
+			s.failures = 0;
+			return 0;
+		}
+		return s.failures;
+	}
+
+	public synchronized int getFailures(Relay relay) {
+		return getFailures(relay, now());
+	}
+
+	public synchronized long getLatency(Relay relay) {
+		Status s = status.get(relay);
+		return s != null ? s.latencyMs : -1;
+	}
+
+	public synchronized void success(Relay relay, long latencyMs) {
+		Status s = get(relay);
+		s.failures = 0;
+		s.latencyMs = latencyMs;
+	}
+
+	public synchronized void failure(Relay relay) {
+		Status s = get(relay);
+		s.failures++;
+		s.lastFailure = now();
+	}
+}
@@ -0,0 +1,302 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.security.InvalidKeyException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.smtp.AuthenticatingSMTPClient.AUTH_METHOD;
+import org.apache.commons.net.smtp.SMTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.data.Relay;
+import uk.me.sa.android.notify_smtp.data.SecurityMode;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+
+public class SMTPConnectionManager {
+	private static final Logger log = LoggerFactory.getLogger(SMTPConnectionManager.class);
+
+	private final TLSSessions sessions = new TLSSessions();
+	private final RelayHealth health = new RelayHealth();
+	private final HappyEyeballs eyeballs = new HappyEyeballs();
+	private final DnsCache dns = new DnsCache();
+	private final AdaptiveTimeouts timeouts = new AdaptiveTimeouts();
+	private final NetworkMonitor network;
+	private final CommandLatency latency;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private AuthSMTPTLSClient idle;
+	private ValidatedPrefs idlePrefs;
+	private long idleSince;
+	private ScheduledFuture<?> idleTimeout;
+	private boolean closed;
+
+	public SMTPConnectionManager() {
+		this(null, null);
+	}
+
+	public SMTPConnectionManager(NetworkMonitor network, CommandLatency latency) {
+		this.network = network;
+		this.latency = latency;
+	}
+
+	public synchronized AuthSMTPTLSClient acquire(ValidatedPrefs prefs) throws NoSuchAlgorithmException, KeyManagementException, IOException,
+			InvalidKeyException, InvalidKeySpecException {
+		AuthSMTPTLSClient client = takeIdle();
+		if (client != null) {
+			if (!sameServer(prefs, idlePrefs)) {
+				log.info("Server changed, closing idle connection");
+				close(client);
+			} else if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleSince) >= prefs.keepAliveMs) {
+				log.info("Idle connection expired");
+				close(client);
+			} else if (!isAlive(client)) {
+				log.info("Idle connection lost, reconnecting");
+				client.disconnect();
+			} else {
+				log.info("Reusing idle connection");
+				return client;
+			}
+		}
+
+		return connectAny(prefs);
+	}
+
+	public void release(ValidatedPrefs prefs, AuthSMTPTLSClient client) {
+		synchronized (this) {
+			close(takeIdle());
+
+			if (!closed && prefs.keepAliveMs > 0) {
+				idle = client;
+				idlePrefs = prefs;
+				idleSince = System.nanoTime();
+				idleTimeout = scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						closeIdle();
+					}
+				}, prefs.keepAliveMs, TimeUnit.MILLISECONDS);
+				return;
+			}
+
+			close(client);
+		}
+
+		saveLatency();
+	}
+
+	public TLSSessions getSessions() {
+		return sessions;
+	}
+
+	public RelayHealth getHealth() {
+		return health;
+	}
+
+	public AdaptiveTimeouts getTimeouts() {
+		return timeouts;
+	}
+
+	public DnsCache getDns() {
+		return dns;
+	}
+
+	public synchronized void prefetch(final ValidatedPrefs prefs) {
+		if (closed || !prefs.hasAllPrefs())
+			return;
+
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				String networkKey = getNetworkKey();
+				for (Relay relay : prefs.relays) {
+					try {
+						dns.resolve(networkKey, relay.node);
+					} catch (UnknownHostException e) {
+						log.warn("Unable to resolve {}", relay.node, e);
+					}
+				}
+			}
+		});
+	}
+
+	public void discard(AuthSMTPTLSClient client) {
+		client.disconnect();
+		saveLatency();
+	}
+
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			scheduler.shutdown();
+			close(takeIdle());
+		}
+		saveLatency();
+	}
+
+	private void closeIdle() {
+		synchronized (this) {
+			AuthSMTPTLSClient client = takeIdle();
+			if (client == null)
+				return;
+
+			log.info("Closing idle connection");
+			close(client);
+		}
+
+		// Save outside the lock so that the sync doesn't delay sending
+		saveLatency();
+	}
+
+	private AuthSMTPTLSClient takeIdle() {
+		AuthSMTPTLSClient client = idle;
+		idle = null;
+		if (idleTimeout != null) {
+			idleTimeout.cancel(false);
+			idleTimeout = null;
+		}
+		return client;
+	}
+
+	private void saveLatency() {
+		if (latency != null)
+			latency.save();
+	}
+
+	private String getNetworkKey() {
+		return network != null ? network.getNetworkKey() : "";
+	}
+
+	private static boolean sameServer(ValidatedPrefs a, ValidatedPrefs b) {
+		return a.relays.equals(b.relays) && a.security == b.security && a.username.equals(b.username)
+				&& a.password.equals(b.password);
+	}
+
+	private static boolean isAlive(AuthSMTPTLSClient client) {
+		if (!client.isConnected())
+			return false;
+
+		try {
+			return client.sendNoOp();
+		} catch (IOException e) {
+			log.warn("NOOP failed", e);
+			return false;
+		}
+	}
+
+	private static void close(AuthSMTPTLSClient client) {
+		if (client == null)
+			return;
+
+		try {
+			client.logout();
+		} catch (IOException e) {
+			log.warn("QUIT failed", e);
+		} finally {
+			client.disconnect();
+		}
+	}
+
+	private AuthSMTPTLSClient connectAny(ValidatedPrefs prefs) throws NoSuchAlgorithmException, KeyManagementException, IOException,
+			InvalidKeyException, InvalidKeySpecException {
+		IOException failure = null;
+		for (Relay relay : health.order(prefs.relays)) {
+			try {
+				return connect(prefs, relay);
+			} catch (IOException e) {
+				log.warn("Unable to connect to {}", relay, e);
+				failure = e;
+			}
+		}
+
+		if (failure == null)
+			throw new IOException("No relays configured");
+		throw failure;
+	}
+
+	private AuthSMTPTLSClient connect(ValidatedPrefs prefs, Relay relay) throws NoSuchAlgorithmException, KeyManagementException, IOException,
+			InvalidKeyException, InvalidKeySpecException {
+		AuthSMTPTLSClient client = new AuthSMTPTLSClient(sessions, prefs.security == SecurityMode.IMPLICIT_TLS);
+		client.setDefaultTimeout(AdaptiveTimeouts.MAX_MS);
+		client.setConnectTimeout(AdaptiveTimeouts.MAX_MS);
+		client.setHappyEyeballs(eyeballs, dns, getNetworkKey());
+		client.setTimeouts(timeouts);
+		client.setLatency(latency);
+
+		long start = System.nanoTime();
+		try {
+			client.connect(relay.node, relay.port);
+		} catch (IOException e) {
+			unhealthy(relay);
+			throw e;
+		}
+
+		boolean ok = false;
+		try {
+			try {
+				handshake(prefs, client);
+			} catch (IOException e) {
+				unhealthy(relay);
+				throw e;
+			}
+
+			// Authentication failures are not the relay's fault
+			health.success(relay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+			if (!client.auth(AUTH_METHOD.PLAIN, prefs.username, prefs.password))
+				throw new SMTPReplyException("AUTH", client.getReplyCode());
+
+			ok = true;
+			return client;
+		} finally {
+			if (!ok)
+				client.disconnect();
+		}
+	}
+
+	private static void handshake(ValidatedPrefs prefs, AuthSMTPTLSClient client) throws NoSuchAlgorithmException, KeyManagementException,
+			IOException {
+		if (!SMTPReply.isPositiveCompletion(client.getReplyCode()))
+			throw new SMTPReplyException("CONN", client.getReplyCode());
+
+		if (!client.elogin())
+			throw new SMTPReplyException("EHLO", client.getReplyCode());
+
+		if (prefs.security != SecurityMode.IMPLICIT_TLS) {
+			if (!client.execTLS())
+				throw new SMTPReplyException("STARTTLS", client.getReplyCode());
+
+			if (!client.elogin())
+				throw new SMTPReplyException("EHLO", client.getReplyCode());
+		}
+	}
+
+	private void unhealthy(Relay relay) {
+		health.failure(relay);
+		dns.remove(relay.node);
+	}
+}
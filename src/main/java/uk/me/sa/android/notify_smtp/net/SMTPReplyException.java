@@ -0,0 +1,38 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.io.IOException;
+
+import org.apache.commons.net.smtp.SMTPReply;
+
+public class SMTPReplyException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public final int code;
+
+	public SMTPReplyException(String command, int code) {
+		super(command + " " + code);
+		this.code = code;
+	}
+
+	public boolean isPermanent() {
+		return SMTPReply.isNegativePermanent(code);
+	}
+}
@@ -19,65 +19,115 @@
 package uk.me.sa.android.notify_smtp.net;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.SocketException;
 import java.security.InvalidKeyException;
+import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.net.smtp.AuthenticatingSMTPClient.AUTH_METHOD;
-import org.apache.commons.net.smtp.SMTPReply;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.me.sa.android.notify_smtp.data.Event;
 import uk.me.sa.android.notify_smtp.data.Message;
+import uk.me.sa.android.notify_smtp.data.Outbox;
 import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
 
 public class SendEmail implements Callable<Boolean> {
 	private static final Logger log = LoggerFactory.getLogger(SendEmail.class);
-	private static final int TIMEOUT_MS = (int)TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
 
 	private ValidatedPrefs prefs;
-	private String subject;
-	private Date ts;
+	private Outbox outbox;
+	private SMTPConnectionManager connections;
+	private List<Event> events;
 
-	public SendEmail(ValidatedPrefs prefs, String subject, Date ts) {
+	public SendEmail(ValidatedPrefs prefs, Outbox outbox, SMTPConnectionManager connections, List<Event> events) {
 		this.prefs = prefs;
-		this.subject = subject;
-		this.ts = (Date)ts.clone();
+		this.outbox = outbox;
+		this.connections = connections;
+		this.events = new ArrayList<Event>(events);
 	}
 
-	public Boolean call() throws NoSuchAlgorithmException, SocketException, IOException, InvalidKeyException, InvalidKeySpecException {
-		log.info("Sending email: {} ({})", subject, ts);
-		AuthSMTPTLSClient client = new AuthSMTPTLSClient();
-		client.setDefaultTimeout(TIMEOUT_MS);
-		client.connect(prefs.node, prefs.port);
-		client.setSoTimeout(TIMEOUT_MS);
+	public Boolean call() throws NoSuchAlgorithmException, KeyManagementException, SocketException, IOException, InvalidKeyException, InvalidKeySpecException {
+		if (events.isEmpty())
+			return true;
+
+		AuthSMTPTLSClient client = connections.acquire(prefs);
+		boolean reusable = false;
 		try {
-			if (!SMTPReply.isPositiveCompletion(client.getReplyCode()))
-				return false;
+			for (List<Event> group : group()) {
+				try {
+					send(client, group);
+					remove(group);
+				} catch (SMTPReplyException e) {
+					if (e.isPermanent()) {
+						log.error("Discarding rejected email: {}", group, e);
+						remove(group);
+					}
+
+					if (!client.isConnected() || !client.reset())
+						return false;
+				}
+			}
+
+			reusable = true;
+			return events.isEmpty();
+		} finally {
+			if (reusable) {
+				connections.release(prefs, client);
+			} else {
+				connections.discard(client);
+			}
+		}
+	}
 
-			if (!client.elogin() || !client.execTLS())
-				return false;
+	private void remove(List<Event> group) {
+		for (Event event : group)
+			outbox.remove(event);
+		events.removeAll(group);
+	}
 
-			if (!client.elogin() || !client.auth(AUTH_METHOD.PLAIN, prefs.username, prefs.password))
-				return false;
+	private List<List<Event>> group() {
+		int size = prefs.digest ? prefs.digestMaxCount : 1;
+		List<List<Event>> groups = new ArrayList<List<Event>>();
+		for (int i = 0; i < events.size(); i += size)
+			groups.add(new ArrayList<Event>(events.subList(i, Math.min(i + size, events.size()))));
+		return groups;
+	}
 
-			if (!client.setSender(prefs.sender))
-				return false;
+	private Message createMessage(List<Event> group) {
+		if (group.size() == 1) {
+			Event event = group.get(0);
+			log.info("Sending email: {} ({})", event.subject, new Date(event.ts));
+			return new Message(event, prefs.sender, prefs.recipients);
+		} else {
+			log.info("Sending digest email: {}", group);
+			return new Message(group, prefs.sender, prefs.recipients);
+		}
+	}
 
-			for (String recipient : prefs.recipients)
-				if (!client.addRecipient(recipient))
-					return false;
+	private void send(AuthSMTPTLSClient client, List<Event> group) throws IOException {
+		Message message = createMessage(group);
 
-			if (!client.sendShortMessageData(new Message(subject, ts, prefs.sender, prefs.recipients).toString()))
-				return false;
+		Writer writer = client.startMessage(prefs.sender, prefs.recipients);
+		message.writeTo(writer);
+		writer.close();
 
-			return client.logout();
-		} finally {
-			client.disconnect();
-		}
+		if (!client.completePendingCommand())
+			throw new SMTPReplyException("DATA", client.getReplyCode());
+
+		List<String> rejected = client.getRejectedRecipients();
+		if (!rejected.isEmpty())
+			log.error("Email not delivered to {}: {}", rejected, group);
+	}
+
+	@Override
+	public String toString() {
+		return "SendEmail" + events;
 	}
 }
\ No newline at end of file
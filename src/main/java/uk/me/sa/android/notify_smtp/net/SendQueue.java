@@ -0,0 +1,236 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+import uk.me.sa.android.notify_smtp.util.RetryScheduler;
+import uk.me.sa.android.notify_smtp.util.SendExecutor;
+import uk.me.sa.android.notify_smtp.util.SequentialRetryRunnable;
+import uk.me.sa.android.notify_smtp.util.WakeLockRunnable;
+import android.os.PowerManager;
+
+public class SendQueue implements NetworkMonitor.Listener {
+	private static final Logger log = LoggerFactory.getLogger(SendQueue.class);
+	public static final long BATCH_MS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+	private final PowerManager pm;
+	private final Executor executor;
+	private final RetryScheduler scheduler;
+	private final RetryScheduler alarms;
+	private final NetworkMonitor network;
+	private final Outbox outbox;
+	private final SMTPConnectionManager connections;
+	private final long batchMs;
+
+	private final List<Event> pending = new ArrayList<Event>();
+	private ValidatedPrefs prefs;
+	private boolean active;
+	private boolean waiting;
+	private boolean parked;
+	private int flushes;
+	private long firstAdded;
+	private long lastAdded;
+
+	public SendQueue(PowerManager pm, Executor executor, RetryScheduler scheduler, RetryScheduler alarms, NetworkMonitor network,
+			Outbox outbox, SMTPConnectionManager connections) {
+		this(pm, executor, scheduler, alarms, network, outbox, connections, BATCH_MS);
+	}
+
+	public SendQueue(PowerManager pm, Executor executor, RetryScheduler scheduler, RetryScheduler alarms, NetworkMonitor network,
+			Outbox outbox, SMTPConnectionManager connections, long batchMs) {
+		this.pm = pm;
+		this.executor = executor;
+		this.scheduler = scheduler;
+		this.alarms = alarms;
+		this.network = network;
+		this.outbox = outbox;
+		this.connections = connections;
+		this.batchMs = batchMs;
+	}
+
+	public void add(ValidatedPrefs prefs, Event event) {
+		outbox.add(event);
+		queue(prefs, event);
+	}
+
+	public void replay(ValidatedPrefs prefs) {
+		for (Event event : outbox.pending())
+			queue(prefs, event);
+	}
+
+	private synchronized void queue(ValidatedPrefs prefs, Event event) {
+		this.prefs = prefs;
+		lastAdded = System.nanoTime();
+		if (pending.isEmpty())
+			firstAdded = lastAdded;
+		pending.add(event);
+
+		if (!active) {
+			active = true;
+			flush(remaining());
+		} else if (waiting && remaining() <= 0) {
+			flush(0);
+		}
+	}
+
+	private void flush(long delayMs) {
+		Runnable batch = new WakeLockRunnable(pm, new Batch(++flushes));
+		waiting = true;
+
+		if (delayMs > 0) {
+			// Batch windows must not be deferred like retries can be
+			try {
+				alarms.schedule(batch, delayMs);
+				return;
+			} catch (RejectedExecutionException e) {
+				log.warn("Unable to schedule batch", e);
+			}
+		}
+
+		executor.execute(batch);
+	}
+
+	@Override
+	public synchronized void onNetworkAvailable() {
+		if (parked) {
+			log.info("Network available, resuming {} email(s)", pending.size());
+			parked = false;
+			flush(0);
+		}
+	}
+
+	private synchronized boolean park(List<Event> events) {
+		if (network.isAvailable())
+			return false;
+
+		log.info("Network unavailable, parking {} email(s)", events.size());
+		pending.addAll(0, events);
+		parked = true;
+		return true;
+	}
+
+	private synchronized void done() {
+		if (pending.isEmpty()) {
+			active = false;
+		} else {
+			flush(remaining());
+		}
+	}
+
+	private synchronized void discarded(int flush) {
+		if (flush != flushes)
+			return;
+
+		// Pending emails remain in the outbox and are sent with the next batch
+		log.warn("Batch discarded, {} email(s) pending", pending.size());
+		active = false;
+		waiting = false;
+	}
+
+	private long remaining() {
+		if (prefs.digest) {
+			if (pending.size() >= prefs.digestMaxCount)
+				return 0;
+
+			long now = System.nanoTime();
+			long remaining = prefs.digestQuietMs - TimeUnit.NANOSECONDS.toMillis(now - lastAdded);
+			if (prefs.digestMaxAgeMs > 0)
+				remaining = Math.min(remaining, prefs.digestMaxAgeMs - TimeUnit.NANOSECONDS.toMillis(now - firstAdded));
+			return remaining;
+		} else {
+			return batchMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstAdded);
+		}
+	}
+
+	private synchronized List<Event> drain(int flush) {
+		if (flush != flushes)
+			return null;
+
+		if (prefs.digest) {
+			long remaining = remaining();
+			if (remaining > 0) {
+				flush(remaining);
+				return null;
+			}
+		}
+
+		waiting = false;
+		List<Event> events = new ArrayList<Event>(pending);
+		pending.clear();
+		return events;
+	}
+
+	private class Batch implements Runnable, SendExecutor.Discardable {
+		private final int flush;
+
+		Batch(int flush) {
+			this.flush = flush;
+		}
+
+		@Override
+		public void run() {
+			List<Event> events = drain(flush);
+			ValidatedPrefs prefs;
+
+			if (events == null)
+				return;
+
+			if (park(events))
+				return;
+
+			synchronized (SendQueue.this) {
+				prefs = SendQueue.this.prefs;
+			}
+
+			log.info("Sending batch of {} email(s)", events.size());
+			new SequentialRetryRunnable(scheduler, new SendEmail(prefs, outbox, connections, events), new SMTPRetryPolicy()) {
+				@Override
+				protected Runnable retry() {
+					return new WakeLockRunnable(pm, this);
+				}
+
+				@Override
+				protected void done(boolean success) {
+					SendQueue.this.done();
+				}
+			}.run();
+		}
+
+		@Override
+		public void discard() {
+			discarded(flush);
+		}
+
+		@Override
+		public String toString() {
+			return "SendQueue.Batch";
+		}
+	}
+}
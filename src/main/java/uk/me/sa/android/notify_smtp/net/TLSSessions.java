@@ -0,0 +1,69 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TLSSessions {
+	private static final Logger log = LoggerFactory.getLogger(TLSSessions.class);
+	private static final int SESSION_CACHE_SIZE = 8;
+	private static final int SESSION_TIMEOUT_S = (int)TimeUnit.SECONDS.convert(1, TimeUnit.DAYS);
+
+	private final AtomicLong resumed = new AtomicLong();
+	private final AtomicLong full = new AtomicLong();
+	private SSLContext context;
+
+	public synchronized SSLContext getContext() throws NoSuchAlgorithmException, KeyManagementException {
+		if (context == null) {
+			SSLContext ctx = SSLContext.getInstance("TLS");
+			ctx.init(null, null, null);
+			ctx.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+			ctx.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_S);
+			context = ctx;
+		}
+		return context;
+	}
+
+	public void handshake(SSLSocket socket, long start) {
+		SSLSession session = socket.getSession();
+		if (session.getCreationTime() < start) {
+			log.info("TLS session resumed ({} resumed, {} full)", resumed.incrementAndGet(), full.get());
+		} else {
+			log.info("TLS full handshake ({} resumed, {} full)", resumed.get(), full.incrementAndGet());
+		}
+	}
+
+	public long getResumed() {
+		return resumed.get();
+	}
+
+	public long getFull() {
+		return full.get();
+	}
+}
@@ -18,23 +18,60 @@
  */
 package uk.me.sa.android.notify_smtp.ui;
 
+import java.io.File;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.EActivity;
 import org.androidannotations.annotations.OptionsItem;
 import org.androidannotations.annotations.OptionsMenu;
+import org.androidannotations.annotations.UiThread;
+import org.androidannotations.annotations.ViewById;
 import org.androidannotations.annotations.sharedpreferences.Pref;
 
 import uk.me.sa.android.notify_smtp.R;
 import uk.me.sa.android.notify_smtp.data.Prefs_;
+import uk.me.sa.android.notify_smtp.net.CommandLatency;
 import android.app.Activity;
 import android.content.Intent;
 import android.provider.Settings;
+import android.widget.TextView;
 
-@EActivity
+@EActivity(R.layout.main_activity)
 @OptionsMenu(R.menu.main_activity_actions)
 public class MainActivity extends Activity {
 	@Pref
 	Prefs_ prefs;
 
+	@ViewById
+	TextView stats;
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+
+		loadStats();
+	}
+
+	@Background
+	void loadStats() {
+		showStats(new CommandLatency(new File(getFilesDir(), CommandLatency.FILENAME)).getCommands());
+	}
+
+	@UiThread
+	void showStats(SortedMap<String, CommandLatency.Histogram> commands) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, CommandLatency.Histogram> entry : commands.entrySet()) {
+			CommandLatency.Histogram histogram = entry.getValue();
+			if (sb.length() > 0)
+				sb.append('\n');
+			sb.append(getString(R.string.stats_command, entry.getKey(), histogram.getCount(), histogram.getMeanMs(), histogram.percentileMs(0.5),
+					histogram.percentileMs(0.95), histogram.getMaxMs()));
+		}
+		stats.setText(sb.length() > 0 ? sb : getString(R.string.stats_none));
+	}
+
 	@OptionsItem(R.id.menu_settings)
 	void openSettings() {
 		startActivity(new Intent(MainActivity.this, SettingsActivity.class));
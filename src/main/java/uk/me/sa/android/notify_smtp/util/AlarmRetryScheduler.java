@@ -0,0 +1,111 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+public class AlarmRetryScheduler implements RetryScheduler {
+	private static final Logger log = LoggerFactory.getLogger(AlarmRetryScheduler.class);
+	static final String EXTRA_ID = "id";
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+	private static final Map<Integer, Alarm> alarms = new HashMap<Integer, Alarm>();
+
+	private final Context context;
+	private final AlarmManager manager;
+	private final Executor executor;
+
+	public AlarmRetryScheduler(Context context, Executor executor) {
+		this.context = context;
+		this.manager = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+		this.executor = executor;
+	}
+
+	@Override
+	public void schedule(Runnable runnable, long delayMs) {
+		int id = nextId.getAndIncrement();
+		PendingIntent intent = PendingIntent.getBroadcast(context, id, new Intent(context, RetryAlarmReceiver.class).putExtra(EXTRA_ID, id),
+				PendingIntent.FLAG_ONE_SHOT);
+
+		synchronized (alarms) {
+			alarms.put(id, new Alarm(this, runnable, intent));
+		}
+
+		manager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delayMs, intent);
+		log.info("Scheduled alarm {} in {}ms for {}", id, delayMs, runnable);
+	}
+
+	public void cancel() {
+		synchronized (alarms) {
+			Iterator<Alarm> it = alarms.values().iterator();
+			while (it.hasNext()) {
+				Alarm alarm = it.next();
+				if (alarm.owner == this) {
+					manager.cancel(alarm.intent);
+					it.remove();
+				}
+			}
+		}
+	}
+
+	static void start(Intent intent) {
+		int id = intent.getIntExtra(EXTRA_ID, 0);
+		final Alarm alarm;
+		synchronized (alarms) {
+			alarm = alarms.remove(id);
+		}
+
+		if (alarm == null) {
+			log.warn("Unknown alarm {}", id);
+			return;
+		}
+
+		try {
+			alarm.owner.executor.execute(alarm.runnable);
+		} catch (RejectedExecutionException e) {
+			log.warn("Unable to run alarm {}", id, e);
+			SendExecutor.discard(alarm.runnable);
+		}
+	}
+
+	private static class Alarm {
+		private final AlarmRetryScheduler owner;
+		private final Runnable runnable;
+		private final PendingIntent intent;
+
+		private Alarm(AlarmRetryScheduler owner, Runnable runnable, PendingIntent intent) {
+			this.owner = owner;
+			this.runnable = runnable;
+			this.intent = intent;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+public final class DataFiles {
+	public interface Writer {
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+
+	private DataFiles() {
+	}
+
+	public static void replace(File file, Writer writer) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			writer.writeTo(out);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		if (!tmp.renameTo(file))
+			throw new IOException("Unable to rename " + tmp + " to " + file);
+	}
+
+	@SuppressFBWarnings("DE_MIGHT_IGNORE")
+	public static void close(Closeable c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+		}
+	}
+}
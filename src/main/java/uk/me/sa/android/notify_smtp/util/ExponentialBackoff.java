@@ -0,0 +1,81 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class ExponentialBackoff implements RetryPolicy {
+	private static final int ATTEMPTS = 5;
+	private static final long INITIAL_DELAY_MS = TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
+	private static final long MAX_DELAY_MS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+	private static final double MULTIPLIER = 2;
+	private static final double JITTER = 0.2;
+	private static final long MAX_ELAPSED_MS = TimeUnit.MILLISECONDS.convert(15, TimeUnit.MINUTES);
+
+	private final int attempts;
+	private final long initialDelayMs;
+	private final long maxDelayMs;
+	private final double multiplier;
+	private final double jitter;
+	private final long maxElapsedMs;
+	private final Random random;
+
+	public ExponentialBackoff() {
+		this(ATTEMPTS, INITIAL_DELAY_MS, MAX_DELAY_MS, MULTIPLIER, JITTER, MAX_ELAPSED_MS);
+	}
+
+	public ExponentialBackoff(int attempts, long initialDelayMs, long maxDelayMs, double multiplier, double jitter, long maxElapsedMs) {
+		this(attempts, initialDelayMs, maxDelayMs, multiplier, jitter, maxElapsedMs, new Random());
+	}
+
+	ExponentialBackoff(int attempts, long initialDelayMs, long maxDelayMs, double multiplier, double jitter, long maxElapsedMs, Random random) {
+		if (attempts < 1 || initialDelayMs < 0 || maxDelayMs < initialDelayMs || multiplier < 1 || jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException();
+
+		this.attempts = attempts;
+		this.initialDelayMs = initialDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.multiplier = multiplier;
+		this.jitter = jitter;
+		this.maxElapsedMs = maxElapsedMs;
+		this.random = random;
+	}
+
+	protected boolean isPermanent(Exception failure) {
+		return false;
+	}
+
+	@Override
+	public long delay(int attempt, long elapsedMs, Exception failure) {
+		if (failure != null && isPermanent(failure))
+			return STOP;
+
+		if (attempt >= attempts)
+			return STOP;
+
+		double delay = Math.min(maxDelayMs, initialDelayMs * Math.pow(multiplier, attempt - 1));
+		delay *= 1 + jitter * (2 * random.nextDouble() - 1);
+
+		if (elapsedMs + delay > maxElapsedMs)
+			return STOP;
+
+		return Math.round(delay);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+public class JobRetryScheduler implements RetryScheduler {
+	private static final Logger log = LoggerFactory.getLogger(JobRetryScheduler.class);
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+	private static final Map<Integer, Job> jobs = new HashMap<Integer, Job>();
+
+	private final JobScheduler scheduler;
+	private final ComponentName service;
+	private final Executor executor;
+
+	public JobRetryScheduler(Context context, Executor executor) {
+		this.scheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+		this.service = new ComponentName(context, RetryJobService.class);
+		this.executor = executor;
+
+		cancel();
+	}
+
+	@Override
+	public void schedule(Runnable runnable, long delayMs) {
+		int id = nextId.getAndIncrement();
+		JobInfo job = new JobInfo.Builder(id, service).setMinimumLatency(delayMs).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).build();
+
+		synchronized (jobs) {
+			jobs.put(id, new Job(this, runnable));
+		}
+
+		if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+			synchronized (jobs) {
+				jobs.remove(id);
+			}
+			throw new RejectedExecutionException("Unable to schedule job " + id + " for " + runnable);
+		}
+
+		log.info("Scheduled job {} in {}ms for {}", id, delayMs, runnable);
+	}
+
+	public void cancel() {
+		for (JobInfo job : scheduler.getAllPendingJobs()) {
+			if (service.equals(job.getService())) {
+				scheduler.cancel(job.getId());
+				synchronized (jobs) {
+					jobs.remove(job.getId());
+				}
+			}
+		}
+	}
+
+	static boolean start(JobService service, JobParameters params) {
+		final Job job;
+		synchronized (jobs) {
+			job = jobs.remove(params.getJobId());
+		}
+
+		if (job == null) {
+			log.warn("Unknown job {}", params.getJobId());
+			return false;
+		}
+
+		try {
+			job.owner.executor.execute(new JobRunnable(service, params, job.runnable));
+		} catch (RejectedExecutionException e) {
+			log.warn("Unable to run job {}", params.getJobId(), e);
+			SendExecutor.discard(job.runnable);
+			return false;
+		}
+		return true;
+	}
+
+	private static class JobRunnable implements Runnable, SendExecutor.Discardable {
+		private final JobService service;
+		private final JobParameters params;
+		private final Runnable runnable;
+
+		private JobRunnable(JobService service, JobParameters params, Runnable runnable) {
+			this.service = service;
+			this.params = params;
+			this.runnable = runnable;
+		}
+
+		@Override
+		public void run() {
+			try {
+				runnable.run();
+			} finally {
+				service.jobFinished(params, false);
+			}
+		}
+
+		@Override
+		public void discard() {
+			log.warn("Job {} discarded", params.getJobId());
+			try {
+				SendExecutor.discard(runnable);
+			} finally {
+				service.jobFinished(params, false);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return runnable.toString();
+		}
+	}
+
+	private static class Job {
+		private final JobRetryScheduler owner;
+		private final Runnable runnable;
+
+		private Job(JobRetryScheduler owner, Runnable runnable) {
+			this.owner = owner;
+			this.runnable = runnable;
+		}
+	}
+}
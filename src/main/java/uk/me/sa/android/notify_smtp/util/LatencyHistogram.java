@@ -0,0 +1,88 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+public class LatencyHistogram {
+	private static final long[] BOUNDS_MS = { 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000 };
+
+	private final int[] window;
+	private final int[] counts = new int[BOUNDS_MS.length + 1];
+	private int size;
+	private int next;
+
+	public LatencyHistogram(int samples) {
+		window = new int[samples];
+	}
+
+	public static int getBuckets() {
+		return BOUNDS_MS.length + 1;
+	}
+
+	public static long getBound(int bucket) {
+		return bucket < BOUNDS_MS.length ? BOUNDS_MS[bucket] : Long.MAX_VALUE;
+	}
+
+	public static int getBucket(long ms) {
+		for (int i = 0; i < BOUNDS_MS.length; i++)
+			if (ms <= BOUNDS_MS[i])
+				return i;
+		return BOUNDS_MS.length;
+	}
+
+	public synchronized void add(long ms) {
+		if (size == window.length) {
+			counts[window[next]]--;
+		} else {
+			size++;
+		}
+
+		window[next] = getBucket(ms);
+		counts[window[next]]++;
+		next = (next + 1) % window.length;
+	}
+
+	public synchronized int getCount() {
+		return size;
+	}
+
+	public synchronized int[] getCounts() {
+		return counts.clone();
+	}
+
+	public synchronized long percentile(double p) {
+		if (size == 0)
+			return -1;
+
+		int target = (int)Math.ceil(p * size);
+		int seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target)
+				return getBound(i);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	public synchronized void clear() {
+		size = 0;
+		next = 0;
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = 0;
+	}
+}
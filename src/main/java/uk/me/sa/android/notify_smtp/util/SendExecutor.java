@@ -0,0 +1,72 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SendExecutor extends ThreadPoolExecutor {
+	private static final Logger log = LoggerFactory.getLogger(SendExecutor.class);
+
+	public SendExecutor(int threads, int queueSize) {
+		this(threads, queueSize, new DiscardOldestPolicy());
+	}
+
+	public SendExecutor(int threads, int queueSize, RejectedExecutionHandler handler) {
+		super(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), handler);
+	}
+
+	public interface Discardable {
+		void discard();
+	}
+
+	public static void discard(Runnable r) {
+		if (r instanceof Discardable)
+			((Discardable)r).discard();
+	}
+
+	public static class DiscardOldestPolicy extends ThreadPoolExecutor.DiscardOldestPolicy {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			if (e.isShutdown()) {
+				log.warn("Executor shutdown, discarding {}", r);
+				discard(r);
+				return;
+			}
+
+			Runnable oldest = e.getQueue().poll();
+			log.warn("Queue full, discarding {}", oldest);
+			discard(oldest);
+			e.execute(r);
+		}
+	}
+
+	public static class DiscardPolicy extends ThreadPoolExecutor.DiscardPolicy {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			log.warn(e.isShutdown() ? "Executor shutdown, discarding {}" : "Queue full, discarding {}", r);
+			discard(r);
+		}
+	}
+}
@@ -19,44 +19,82 @@
 package uk.me.sa.android.notify_smtp.util;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-
-public class SequentialRetryRunnable implements Runnable {
+public class SequentialRetryRunnable implements Runnable, SendExecutor.Discardable {
 	protected static final Logger log = LoggerFactory.getLogger(SequentialRetryRunnable.class);
-	protected static final int ATTEMPTS = 3;
-	private static final int DELAY_MS = (int)TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
 
+	protected RetryScheduler scheduler;
 	protected Callable<Boolean> callable;
+	protected RetryPolicy policy;
+	private int attempt;
+	private long start;
+
+	public SequentialRetryRunnable(RetryScheduler scheduler, Callable<Boolean> callable) {
+		this(scheduler, callable, new ExponentialBackoff());
+	}
 
-	public SequentialRetryRunnable(Callable<Boolean> callable) {
+	public SequentialRetryRunnable(RetryScheduler scheduler, Callable<Boolean> callable, RetryPolicy policy) {
+		this.scheduler = scheduler;
 		this.callable = callable;
+		this.policy = policy;
 	}
 
-	@SuppressFBWarnings("SWL_SLEEP_WITH_LOCK_HELD")
 	public void run() {
+		if (attempt == 0)
+			start = System.nanoTime();
+		attempt++;
+
+		Exception failure = null;
 		try {
 			synchronized (callable.getClass()) {
-				for (int attempt = 1; attempt <= ATTEMPTS; attempt++) {
-					try {
-						log.info("Attempt {} of {}: {}", attempt, ATTEMPTS, callable);
-
-						if (callable.call())
-							break;
-					} catch (Exception e) {
-						log.error("Attempt {} failed", attempt, e);
-					}
-
-					if (attempt < ATTEMPTS)
-						Thread.sleep(DELAY_MS);
+				log.info("Attempt {}: {}", attempt, callable);
+
+				if (callable.call()) {
+					done(true);
+					return;
 				}
 			}
-		} catch (InterruptedException e) {
-			log.warn("Interrupted while sleeping", e);
+		} catch (Exception e) {
+			log.error("Attempt {} failed", attempt, e);
+			failure = e;
+		}
+
+		long delay = policy.delay(attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failure);
+		if (delay < 0) {
+			log.warn("Giving up after {} attempts: {}", attempt, callable);
+			done(false);
+			return;
+		}
+
+		log.info("Retrying in {}ms", delay);
+		try {
+			scheduler.schedule(retry(), delay);
+		} catch (RejectedExecutionException e) {
+			log.warn("Unable to schedule retry: {}", callable, e);
+			done(false);
 		}
 	}
+
+	@Override
+	public void discard() {
+		log.warn("Attempt {} discarded: {}", attempt + 1, callable);
+		done(false);
+	}
+
+	protected Runnable retry() {
+		return this;
+	}
+
+	protected void done(boolean success) {
+	}
+
+	@Override
+	public String toString() {
+		return "SequentialRetryRunnable";
+	}
 }
@@ -0,0 +1,59 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+public class TokenBucket {
+	private final long capacity;
+	private final long intervalMs;
+	private long credit;
+	private long last;
+
+	public TokenBucket(int capacity, long intervalMs, long now) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		if (intervalMs < 1)
+			throw new IllegalArgumentException("intervalMs must be at least 1");
+
+		this.capacity = capacity * intervalMs;
+		this.intervalMs = intervalMs;
+		credit = this.capacity;
+		last = now;
+	}
+
+	private void refill(long now) {
+		if (now > last) {
+			credit = Math.min(capacity, credit + (now - last));
+			last = now;
+		}
+	}
+
+	public boolean available(long now) {
+		refill(now);
+		return credit >= intervalMs;
+	}
+
+	public void take() {
+		credit -= intervalMs;
+	}
+
+	public long delay(long now) {
+		refill(now);
+		return Math.max(intervalMs - credit, 0);
+	}
+}
@@ -20,7 +20,7 @@ package uk.me.sa.android.notify_smtp.util;
 
 import android.os.PowerManager;
 
-public class WakeLockRunnable implements Runnable {
+public class WakeLockRunnable implements Runnable, SendExecutor.Discardable {
 	private PowerManager pm;
 	private Runnable runnable;
 
@@ -39,4 +39,14 @@ public class WakeLockRunnable implements Runnable {
 			wl.release();
 		}
 	}
+
+	@Override
+	public void discard() {
+		SendExecutor.discard(runnable);
+	}
+
+	@Override
+	public String toString() {
+		return runnable.toString();
+	}
 }
@@ -18,36 +18,45 @@
  */
 package uk.me.sa.android.notify_smtp;
 
-import static org.junit.Assert.assertEquals;
-
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.internal.ReflectionHelpers;
 import org.robolectric.shadows.ShadowPowerManager;
-import org.robolectric.shadows.ShadowPreferenceManager;
 import org.robolectric.shadows.ShadowToast;
 import org.robolectric.util.ServiceController;
 
+import uk.me.sa.android.notify_smtp.data.DedupCache;
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
 import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
-import uk.me.sa.android.notify_smtp.net.SendEmail;
-import uk.me.sa.android.notify_smtp.util.JoinThreadsAnswer;
+import uk.me.sa.android.notify_smtp.net.NetworkMonitor;
+import uk.me.sa.android.notify_smtp.net.SMTPConnectionManager;
+import uk.me.sa.android.notify_smtp.net.SendQueue;
+import uk.me.sa.android.notify_smtp.util.AlarmRetryScheduler;
+import uk.me.sa.android.notify_smtp.util.JobRetryScheduler;
+import uk.me.sa.android.notify_smtp.util.SendExecutor;
 import android.app.Notification;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.service.notification.StatusBarNotification;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -57,7 +66,6 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 @PrepareForTest(fullyQualifiedNames = { "uk.me.sa.android.notify_smtp.NotificationListener", "uk.me.sa.android.notify_smtp.NotificationListener_" })
 @PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*" })
 public class TestNotificationListener {
-	SharedPreferences sharedPreferences;
 	ServiceController<NotificationListener_> controller;
 	NotificationListener_ service;
 
@@ -99,13 +107,32 @@ public class TestNotificationListener {
 	ValidatedPrefs validatedPrefs;
 
 	@Mock
-	SendEmail sendEmail;
+	SendExecutor executor;
+
+	@Mock
+	Outbox outbox;
+
+	@Mock
+	JobRetryScheduler retries;
+
+	@Mock
+	AlarmRetryScheduler alarms;
+
+	@Mock
+	NetworkMonitor network;
+
+	@Mock
+	SMTPConnectionManager connections;
+
+	@Mock
+	SendQueue queue;
+
+	@Mock
+	DedupCache dedup;
 
 	StatusBarNotification[] allMessages;
 	StatusBarNotification[] boringMessages;
 
-	JoinThreadsAnswer threads;
-
 	@Before
 	public void create() throws Exception {
 		MockitoAnnotations.initMocks(this);
@@ -141,16 +168,26 @@ public class TestNotificationListener {
 		allMessages = new StatusBarNotification[] { sbnNormalMessage, sbnNormalOther, sbnMissedCallIcon, sbnTalkMessage };
 		boringMessages = new StatusBarNotification[] { sbnNormalMessage, sbnNormalOther };
 
-		threads = new JoinThreadsAnswer();
-
 		PowerMockito.whenNew(ValidatedPrefs.class).withAnyArguments().thenReturn(validatedPrefs);
-		PowerMockito.whenNew(SendEmail.class).withAnyArguments().thenReturn(sendEmail);
-		Mockito.doReturn(true).when(sendEmail).call();
-		PowerMockito.whenNew(Thread.class).withAnyArguments().thenAnswer(threads);
+		PowerMockito.whenNew(SendExecutor.class).withAnyArguments().thenReturn(executor);
+		PowerMockito.whenNew(Outbox.class).withAnyArguments().thenReturn(outbox);
+		PowerMockito.whenNew(JobRetryScheduler.class).withAnyArguments().thenReturn(retries);
+		PowerMockito.whenNew(AlarmRetryScheduler.class).withAnyArguments().thenReturn(alarms);
+		PowerMockito.whenNew(NetworkMonitor.class).withAnyArguments().thenReturn(network);
+		PowerMockito.whenNew(SMTPConnectionManager.class).withAnyArguments().thenReturn(connections);
+		PowerMockito.whenNew(SendQueue.class).withAnyArguments().thenReturn(queue);
+		PowerMockito.whenNew(DedupCache.class).withAnyArguments().thenReturn(dedup);
+		Mockito.doReturn(true).when(dedup).add(Mockito.anyString(), Mockito.anyLong());
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				((Runnable)invocation.getArguments()[0]).run();
+				return null;
+			}
+		}).when(executor).execute(Mockito.isA(Runnable.class));
 
 		ShadowToast.reset();
 		ShadowPowerManager.reset();
-		sharedPreferences = ShadowPreferenceManager.getDefaultSharedPreferences(Robolectric.application.getApplicationContext());
 		controller = Robolectric.buildService(NotificationListener_.class);
 		service = PowerMockito.spy(controller.create().bind().get());
 	}
@@ -161,231 +198,265 @@ public class TestNotificationListener {
 			controller.unbind().destroy();
 	}
 
+	static Event eventWithSubject(final String subject) {
+		return Mockito.argThat(new ArgumentMatcher<Event>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument instanceof Event && ((Event)argument).subject.equals(subject);
+			}
+		});
+	}
+
+	@Test
+	public void destroyShutsDownExecutor() throws Exception {
+		Mockito.doReturn(true).when(executor).awaitTermination(Mockito.anyLong(), Mockito.any(TimeUnit.class));
+		controller.unbind().destroy();
+		controller = null;
+
+		InOrder inOrder = Mockito.inOrder(executor);
+		inOrder.verify(executor).shutdown();
+		inOrder.verify(executor).awaitTermination(Mockito.anyLong(), Mockito.any(TimeUnit.class));
+		inOrder.verify(executor).shutdown();
+		Mockito.verify(retries).cancel();
+		Mockito.verify(alarms).cancel();
+		Mockito.verify(network).stop();
+		Mockito.verify(connections).close();
+	}
+
 	@Test
 	public void existing_disabledNoMessages() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 		PowerMockito.doReturn(new StatusBarNotification[0]).when(service).getActiveNotifications();
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_disabledBoringMessages() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 		PowerMockito.doReturn(boringMessages).when(service).getActiveNotifications();
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_disabledAllMessages() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 		PowerMockito.doReturn(allMessages).when(service).getActiveNotifications();
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_enabledNoMessages() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		PowerMockito.doReturn(new StatusBarNotification[0]).when(service).getActiveNotifications();
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_enabledBoringMessages() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		PowerMockito.doReturn(boringMessages).when(service).getActiveNotifications();
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_enabledAllMessages_Inactive() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		PowerMockito.doReturn(allMessages).when(service).getActiveNotifications();
 		Mockito.doReturn(false).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onListenerConnected();
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void existing_enabledAllMessages_Active() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		PowerMockito.doReturn(allMessages).when(service).getActiveNotifications();
 		Mockito.doReturn(true).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onListenerConnected();
 
-		assertEquals(2, threads.join());
-		PowerMockito.verifyNew(SendEmail.class).withArguments(Mockito.isA(ValidatedPrefs.class), Mockito.eq("Missed phone call"), Mockito.isA(Date.class));
-		PowerMockito.verifyNew(SendEmail.class).withArguments(Mockito.isA(ValidatedPrefs.class), Mockito.eq("Message received"), Mockito.isA(Date.class));
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
-		Mockito.verify(sendEmail, Mockito.times(2)).call();
-		Mockito.verifyNoMoreInteractions(sendEmail);
+		Mockito.verify(queue).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Missed phone call"));
+		Mockito.verify(queue).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Message received"));
+		Mockito.verify(queue, Mockito.times(2)).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
+	}
+
+	@Test
+	public void duplicateSuppressed() throws Exception {
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
+		Mockito.doReturn(true).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
+		Mockito.doReturn(12345L).when(sbnMissedCallIcon).getPostTime();
+		Mockito.doReturn(true).doReturn(false).when(dedup).add(Mockito.anyString(), Mockito.anyLong());
+
+		service.onNotificationPosted(sbnMissedCallIcon);
+		service.onNotificationPosted(sbnMissedCallIcon);
+
+		Mockito.verify(dedup, Mockito.times(2)).add(Mockito.anyString(), Mockito.eq(12345L));
+		Mockito.verify(queue, Mockito.times(1)).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Missed phone call"));
+	}
+
+	@Test
+	public void prefsChangeReplacesConfig() throws Exception {
+		ValidatedPrefs updatedPrefs = Mockito.mock(ValidatedPrefs.class);
+		Mockito.doReturn(true).when(updatedPrefs).isActiveAt(Mockito.isA(Date.class));
+		PowerMockito.whenNew(ValidatedPrefs.class).withAnyArguments().thenReturn(updatedPrefs);
+
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
+		service.onNotificationPosted(sbnMissedCallIcon);
+
+		Mockito.verify(queue).add(Mockito.same(updatedPrefs), eventWithSubject("Missed phone call"));
+		Mockito.verify(validatedPrefs, Mockito.never()).isActiveAt(Mockito.any(Date.class));
 	}
 
 	@Test
 	public void posted_disabledNormalOther() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 
 		service.onNotificationPosted(sbnNormalOther);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_disabledNormalMessage() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 
 		service.onNotificationPosted(sbnNormalMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_disabledMissedCallIcon() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 
 		service.onNotificationPosted(sbnMissedCallIcon);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_disabledTalkMessage() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 
 		service.onNotificationPosted(sbnTalkMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_disabledMessengerMessage() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", false);
 
 		service.onNotificationPosted(sbnMessengerMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledNormalOther() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 
 		service.onNotificationPosted(sbnNormalOther);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledNormalMessage() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 
 		service.onNotificationPosted(sbnNormalMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledMissedCallIcon_Inactive() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(false).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnMissedCallIcon);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledMissedCallIcon_Active() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(true).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnMissedCallIcon);
 
-		assertEquals(1, threads.join());
-		PowerMockito.verifyNew(SendEmail.class).withArguments(Mockito.isA(ValidatedPrefs.class), Mockito.eq("Missed phone call"), Mockito.isA(Date.class));
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
-		Mockito.verify(sendEmail).call();
-		Mockito.verifyNoMoreInteractions(sendEmail);
+		Mockito.verify(queue).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Missed phone call"));
+		Mockito.verify(queue).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledTalkMessage_Inactive() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(false).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnTalkMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledTalkMessage_Active() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(true).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnTalkMessage);
 
-		assertEquals(1, threads.join());
-		PowerMockito.verifyNew(SendEmail.class).withArguments(Mockito.isA(ValidatedPrefs.class), Mockito.eq("Message received"), Mockito.isA(Date.class));
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
-		Mockito.verify(sendEmail).call();
-		Mockito.verifyNoMoreInteractions(sendEmail);
+		Mockito.verify(queue).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Message received"));
+		Mockito.verify(queue).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledMessengerMessage_Inactive() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(false).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnMessengerMessage);
 
-		assertEquals(0, threads.join());
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
+		Mockito.verify(queue, Mockito.never()).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
 	}
 
 	@Test
 	public void posted_enabledMessengerMessage_Active() throws Exception {
-		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Whitebox.setInternalState(validatedPrefs, "enabled", true);
 		Mockito.doReturn(true).when(validatedPrefs).isActiveAt(Mockito.isA(Date.class));
 
 		service.onNotificationPosted(sbnMessengerMessage);
 
-		assertEquals(1, threads.join());
-		PowerMockito.verifyNew(SendEmail.class).withArguments(Mockito.isA(ValidatedPrefs.class), Mockito.eq("Message received"), Mockito.isA(Date.class));
-		PowerMockito.verifyNoMoreInteractions(SendEmail.class);
-		Mockito.verify(sendEmail).call();
-		Mockito.verifyNoMoreInteractions(sendEmail);
+		Mockito.verify(queue).add(Mockito.isA(ValidatedPrefs.class), eventWithSubject("Message received"));
+		Mockito.verify(queue).add(Mockito.any(ValidatedPrefs.class), Mockito.any(Event.class));
+	}
+
+	@Test
+	public void createReplaysQueue() throws Exception {
+		Mockito.verify(queue).replay(Mockito.isA(ValidatedPrefs.class));
+	}
+
+	@Test
+	public void createMonitorsNetwork() throws Exception {
+		Mockito.verify(network).start(queue);
 	}
 }
@@ -0,0 +1,97 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestDedupCache {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	File file;
+
+	@Before
+	public void create() throws Exception {
+		file = new File(folder.getRoot(), "dedup");
+	}
+
+	@Test
+	public void duplicate() throws Exception {
+		DedupCache dedup = new DedupCache(file);
+		assertTrue(dedup.add("com.example:1:null", 1000));
+		assertFalse(dedup.add("com.example:1:null", 1000));
+		assertTrue(dedup.add("com.example:1:null", 2000));
+		assertTrue(dedup.add("com.example:2:null", 1000));
+
+		assertEquals(1, dedup.getHits());
+		assertEquals(3, dedup.getMisses());
+	}
+
+	@Test
+	public void persisted() throws Exception {
+		new DedupCache(file).add("com.example:1:null", 1000);
+
+		DedupCache dedup = new DedupCache(file);
+		assertFalse(dedup.add("com.example:1:null", 1000));
+		assertEquals(1, dedup.getHits());
+		assertEquals(0, dedup.getMisses());
+	}
+
+	@Test
+	public void expired() throws Exception {
+		DedupCache dedup = new DedupCache(file, DedupCache.MAX_ENTRIES, 50);
+		assertTrue(dedup.add("com.example:1:null", 1000));
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertTrue(dedup.add("com.example:1:null", 1000));
+
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertTrue(new DedupCache(file, DedupCache.MAX_ENTRIES, 50).add("com.example:1:null", 1000));
+	}
+
+	@Test
+	public void bounded() throws Exception {
+		DedupCache dedup = new DedupCache(file, 2, DedupCache.TTL_MS);
+		assertTrue(dedup.add("com.example:1:null", 1000));
+		assertTrue(dedup.add("com.example:2:null", 1000));
+		assertFalse(dedup.add("com.example:1:null", 1000));
+		assertTrue(dedup.add("com.example:3:null", 1000));
+
+		assertFalse(dedup.add("com.example:1:null", 1000));
+		assertTrue(dedup.add("com.example:2:null", 1000));
+		assertTrue(new DedupCache(file, 2, DedupCache.TTL_MS).add("com.example:3:null", 1000));
+	}
+}
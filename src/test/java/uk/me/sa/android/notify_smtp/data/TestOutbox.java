@@ -0,0 +1,231 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestOutbox {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	File file;
+
+	@Before
+	public void create() throws Exception {
+		file = new File(folder.getRoot(), "outbox");
+	}
+
+	@Test
+	public void empty() throws Exception {
+		assertTrue(new Outbox(file).pending().isEmpty());
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void persisted() throws Exception {
+		Outbox outbox = new Outbox(file);
+		outbox.add(new Event("one", "com.example", 1));
+		outbox.add(new Event("two", "com.example", 2));
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(2, pending.size());
+		assertEquals("one", pending.get(0).subject);
+		assertEquals("com.example", pending.get(0).packageName);
+		assertEquals(1, pending.get(0).ts);
+		assertEquals("two", pending.get(1).subject);
+		assertEquals(2, pending.get(1).ts);
+	}
+
+	@Test
+	public void content() throws Exception {
+		new Outbox(file).add(new Event("one", "Alice\nHello", "com.example", 1));
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("Alice\nHello", pending.get(0).content);
+	}
+
+	@Test
+	public void removedPicture() throws Exception {
+		File picture = folder.newFile("picture.jpg");
+		Outbox outbox = new Outbox(file);
+		Event event = new Event("one", "", picture.getPath(), "com.example", 1);
+		outbox.add(event);
+
+		assertEquals(picture.getPath(), new Outbox(file).pending().get(0).picture);
+		assertTrue(picture.exists());
+
+		outbox.remove(event);
+		assertFalse(picture.exists());
+	}
+
+	@Test
+	public void keptPicture() throws Exception {
+		File picture = folder.newFile("picture.jpg");
+		Outbox outbox = new Outbox(file);
+		Event event = new Event("one", "", picture.getPath(), "com.example", 1);
+		outbox.add(event);
+
+		outbox.remove(event, false);
+		assertTrue(picture.exists());
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void removed() throws Exception {
+		Outbox outbox = new Outbox(file);
+		Event one = new Event("one", "com.example", 1);
+		Event two = new Event("two", "com.example", 2);
+		outbox.add(one);
+		outbox.add(two);
+		outbox.remove(one);
+
+		assertEquals(1, outbox.pending().size());
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals(two.id, pending.get(0).id);
+	}
+
+	@Test
+	public void compacted() throws Exception {
+		Outbox outbox = new Outbox(file);
+		for (int i = 0; i < 1000; i++) {
+			Event event = new Event("event", "com.example", i);
+			outbox.add(event);
+			outbox.remove(event);
+		}
+		outbox.add(new Event("last", "com.example", 1000));
+
+		assertTrue(file.length() < 4096);
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("last", pending.get(0).subject);
+	}
+
+	@Test
+	public void version1() throws Exception {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(1);
+			out.write(1);
+			out.writeUTF("id");
+			out.writeUTF("one");
+			out.writeLong(1);
+		} finally {
+			out.close();
+		}
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("id", pending.get(0).id);
+		assertEquals("one", pending.get(0).subject);
+		assertEquals("", pending.get(0).packageName);
+		assertEquals(1, pending.get(0).ts);
+
+		pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("id", pending.get(0).id);
+	}
+
+	@Test
+	public void rewrittenMissing() throws Exception {
+		Outbox outbox = new Outbox(file);
+		outbox.add(new Event("one", "com.example", 1));
+		assertTrue(file.delete());
+		outbox.add(new Event("two", "com.example", 2));
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(2, pending.size());
+		assertEquals("one", pending.get(0).subject);
+		assertEquals("two", pending.get(1).subject);
+	}
+
+	@Test
+	public void rewrittenOldVersion() throws Exception {
+		Outbox outbox = new Outbox(file);
+		outbox.add(new Event("one", "com.example", 1));
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(1);
+		} finally {
+			out.close();
+		}
+
+		outbox.add(new Event("two", "com.example", 2));
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(2, pending.size());
+		assertEquals("one", pending.get(0).subject);
+		assertEquals("two", pending.get(1).subject);
+	}
+
+	@Test
+	public void unknownVersion() throws Exception {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(Integer.MAX_VALUE);
+		} finally {
+			out.close();
+		}
+
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void truncated() throws Exception {
+		Outbox outbox = new Outbox(file);
+		outbox.add(new Event("one", "com.example", 1));
+		outbox.add(new Event("two", "com.example", 2));
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 1);
+		} finally {
+			raf.close();
+		}
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("one", pending.get(0).subject);
+	}
+}
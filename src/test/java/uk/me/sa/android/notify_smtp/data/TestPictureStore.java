@@ -0,0 +1,72 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestPictureStore {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void scale() {
+		assertArrayEquals(new int[] { 800, 600 }, PictureStore.scale(800, 600, 1024));
+		assertArrayEquals(new int[] { 1024, 768 }, PictureStore.scale(2048, 1536, 1024));
+		assertArrayEquals(new int[] { 512, 1024 }, PictureStore.scale(1000, 2000, 1024));
+		assertArrayEquals(new int[] { 1, 100 }, PictureStore.scale(1, 10000, 100));
+		assertArrayEquals(new int[] { 4000, 3000 }, PictureStore.scale(4000, 3000, 0));
+	}
+
+	@Test
+	public void clean() throws Exception {
+		File dir = folder.newFolder("pictures");
+		File used = new File(dir, "used.jpg");
+		File unused = new File(dir, "unused.jpg");
+		assertTrue(used.createNewFile());
+		assertTrue(unused.createNewFile());
+
+		new PictureStore(dir).clean(Arrays.asList(new Event("one", "", used.getPath(), "com.example", 1), new Event("two", "com.example", 2)));
+
+		assertTrue(used.exists());
+		assertFalse(unused.exists());
+	}
+
+	@Test
+	public void cleanMissingDir() throws Exception {
+		new PictureStore(new File(folder.getRoot(), "missing")).clean(Collections.<Event>emptyList());
+	}
+}
@@ -0,0 +1,141 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ReflectionHelpers;
+
+import uk.me.sa.android.notify_smtp.R;
+import android.app.Notification;
+import android.os.Build;
+import android.service.notification.StatusBarNotification;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestRules {
+	@Mock
+	StatusBarNotification sbn;
+
+	@Mock
+	Notification n;
+
+	@Before
+	public void create() {
+		MockitoAnnotations.initMocks(this);
+
+		ReflectionHelpers.setStaticFieldReflectively(Build.VERSION.class, "SDK_INT", 18);
+		Mockito.doReturn(n).when(sbn).getNotification();
+		Mockito.doReturn("com.example").when(sbn).getPackageName();
+	}
+
+	@Test
+	public void packageRule() {
+		Rule rule = new Rule("com.example", null, 0, null, null, "Example");
+		Rules rules = new Rules(Arrays.asList(new Rule("com.example.other", null, 0, null, null, "Other"), rule));
+
+		assertSame(rule, rules.match(sbn));
+
+		Mockito.doReturn("com.example.none").when(sbn).getPackageName();
+		assertNull(rules.match(sbn));
+	}
+
+	@Test
+	public void anyPackageRule() {
+		Rule rule = new Rule(null, null, 42, null, null, "Icon");
+		Rules rules = new Rules(Arrays.asList(new Rule("com.example.other", null, 0, null, null, "Other"), rule));
+
+		assertNull(rules.match(sbn));
+
+		n.icon = 42;
+		assertSame(rule, rules.match(sbn));
+
+		Mockito.doReturn("com.example.other").when(sbn).getPackageName();
+		assertEquals("Other", rules.match(sbn).subject);
+	}
+
+	@Test
+	public void order() {
+		Rule rule1 = new Rule(null, null, 42, null, null, "Icon");
+		Rule rule2 = new Rule("com.example", null, 0, null, null, "Example");
+		Rules rules = new Rules(Arrays.asList(rule1, rule2));
+
+		assertSame(rule2, rules.match(sbn));
+
+		n.icon = 42;
+		assertSame(rule1, rules.match(sbn));
+	}
+
+	@Test
+	public void category() {
+		Rule rule = new Rule("com.example", Notification.CATEGORY_MESSAGE, 0, null, null, "Example");
+		Rules rules = new Rules(Arrays.asList(rule));
+
+		assertSame(rule, rules.match(sbn));
+
+		ReflectionHelpers.setStaticFieldReflectively(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+		n.category = Notification.CATEGORY_SYSTEM;
+		assertNull(rules.match(sbn));
+
+		n.category = Notification.CATEGORY_MESSAGE;
+		assertSame(rule, rules.match(sbn));
+	}
+
+	@Test
+	public void subject() {
+		assertEquals("Example", new Rule("com.example", null, 0, null, null, "Example").subject(sbn));
+	}
+
+	@Test
+	public void noContentBeforeKitKat() {
+		assertEquals("", new Rule(null, null, 0, null, null, "Example").content(sbn));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noSubject() {
+		new Rule("com.example", null, 0, null, null, "");
+	}
+
+	@Test
+	public void resources() {
+		Rules rules = new Rules(Robolectric.application.getResources(), R.xml.rules);
+
+		n.icon = android.R.drawable.stat_notify_missed_call;
+		assertEquals("Missed phone call", rules.match(sbn).subject);
+
+		n.icon = 0;
+		assertNull(rules.match(sbn));
+
+		Mockito.doReturn("com.google.android.talk").when(sbn).getPackageName();
+		assertEquals("Message received", rules.match(sbn).subject);
+	}
+}
@@ -18,11 +18,14 @@
  */
 package uk.me.sa.android.notify_smtp.data;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -71,6 +74,15 @@ public class TestValidatedPrefs {
 		Assert.assertTrue(new ValidatedPrefs(prefs).isActiveAt(new Date(0)));
 	}
 
+	@Test
+	public void testEnabled() {
+		sharedPreferences.edit().putBoolean("enabled", true).commit();
+		Assert.assertTrue(new ValidatedPrefs(prefs).enabled);
+
+		sharedPreferences.edit().putBoolean("enabled", false).commit();
+		Assert.assertFalse(new ValidatedPrefs(prefs).enabled);
+	}
+
 	@Test
 	public void testNoDays() {
 		sharedPreferences.edit().remove("days").commit();
@@ -546,4 +558,165 @@ public class TestValidatedPrefs {
 
 		Assert.assertFalse(testTime(7, 0, 0));
 	}
+
+	@Test
+	public void testOvernight() {
+		sharedPreferences.edit().putString("startTime", "22:00").commit();
+		sharedPreferences.edit().putString("stopTime", "06:00").commit();
+
+		Assert.assertTrue(testTime(0, 0, 0));
+		Assert.assertTrue(testTime(6, 0, 59));
+		Assert.assertFalse(testTime(6, 1, 0));
+		Assert.assertFalse(testTime(12, 0, 0));
+		Assert.assertFalse(testTime(21, 59, 59));
+		Assert.assertTrue(testTime(22, 0, 0));
+		Assert.assertTrue(testTime(23, 59, 59));
+	}
+
+	@Test
+	public void testOvernightDay() {
+		sharedPreferences.edit().putStringSet("days", Collections.singleton(String.valueOf(Calendar.SATURDAY))).commit();
+		sharedPreferences.edit().putString("startTime", "22:00").commit();
+		sharedPreferences.edit().putString("stopTime", "06:00").commit();
+
+		Calendar c = Calendar.getInstance(Locale.ENGLISH);
+		c.set(Calendar.DAY_OF_WEEK, Calendar.SATURDAY);
+		c.set(Calendar.HOUR_OF_DAY, 23);
+		Assert.assertTrue(new ValidatedPrefs(prefs).isActiveAt(c.getTime()));
+
+		c.add(Calendar.HOUR_OF_DAY, 2);
+		Assert.assertEquals(Calendar.SUNDAY, c.get(Calendar.DAY_OF_WEEK));
+		Assert.assertTrue(new ValidatedPrefs(prefs).isActiveAt(c.getTime()));
+
+		c.add(Calendar.HOUR_OF_DAY, 6);
+		Assert.assertFalse(new ValidatedPrefs(prefs).isActiveAt(c.getTime()));
+
+		c.add(Calendar.DAY_OF_MONTH, 6);
+		c.set(Calendar.HOUR_OF_DAY, 1);
+		Assert.assertEquals(Calendar.SATURDAY, c.get(Calendar.DAY_OF_WEEK));
+		Assert.assertFalse(new ValidatedPrefs(prefs).isActiveAt(c.getTime()));
+	}
+
+	@Test
+	public void testMultipleWindows() {
+		sharedPreferences.edit().putString("startTime", "08:00 17:00").commit();
+		sharedPreferences.edit().putString("stopTime", "12:00  22:00").commit();
+
+		Assert.assertFalse(testTime(7, 59, 59));
+		Assert.assertTrue(testTime(8, 0, 0));
+		Assert.assertTrue(testTime(12, 0, 59));
+		Assert.assertFalse(testTime(12, 1, 0));
+		Assert.assertFalse(testTime(16, 59, 59));
+		Assert.assertTrue(testTime(17, 0, 0));
+		Assert.assertTrue(testTime(22, 0, 59));
+		Assert.assertFalse(testTime(22, 1, 0));
+	}
+
+	@Test
+	public void testMismatchedWindows() {
+		sharedPreferences.edit().putString("startTime", "08:00 17:00").commit();
+		sharedPreferences.edit().putString("stopTime", "12:00").commit();
+
+		Assert.assertTrue(new ValidatedPrefs(prefs).hasAllPrefs());
+		Assert.assertFalse(testTime(9, 0, 0));
+		Assert.assertFalse(testTime(18, 0, 0));
+	}
+
+	@Test
+	public void testSnapshot() {
+		ValidatedPrefs vp = new ValidatedPrefs(prefs);
+
+		sharedPreferences.edit().putString("node", "").commit();
+		sharedPreferences.edit().remove("days").commit();
+		sharedPreferences.edit().putString("recipients", "other").commit();
+
+		Assert.assertTrue(vp.hasAllPrefs());
+		Assert.assertTrue(vp.isActiveAt(new Date(0)));
+		Assert.assertEquals("node", vp.node);
+		Assert.assertEquals(Collections.singleton("recipients"), vp.recipients);
+	}
+
+	@Test
+	public void testTimeZoneChange() {
+		TimeZone original = TimeZone.getDefault();
+		try {
+			sharedPreferences.edit().putString("startTime", "09:00").commit();
+			sharedPreferences.edit().putString("stopTime", "17:00").commit();
+			TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+			ValidatedPrefs vp = new ValidatedPrefs(prefs);
+
+			// 1970-01-01 10:00 UTC
+			Date ts = new Date(TimeUnit.MILLISECONDS.convert(10, TimeUnit.HOURS));
+			Assert.assertTrue(vp.isActiveAt(ts));
+
+			TimeZone.setDefault(TimeZone.getTimeZone("GMT+08:00"));
+			Assert.assertFalse(vp.isActiveAt(ts));
+		} finally {
+			TimeZone.setDefault(original);
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutableRecipients() {
+		new ValidatedPrefs(prefs).recipients.add("other");
+	}
+
+	@Test
+	public void testRateLimitBounds() {
+		sharedPreferences.edit().putInt("rateLimitPackage", -1).putInt("rateLimitGlobal", -1).commit();
+		Assert.assertEquals(0, new ValidatedPrefs(prefs).rateLimitPackage);
+		Assert.assertEquals(0, new ValidatedPrefs(prefs).rateLimitGlobal);
+
+		sharedPreferences.edit().putInt("rateLimitPackage", Integer.MAX_VALUE).putInt("rateLimitGlobal", Integer.MAX_VALUE).commit();
+		Assert.assertEquals(ValidatedPrefs.RATE_LIMIT_MAX, new ValidatedPrefs(prefs).rateLimitPackage);
+		Assert.assertEquals(ValidatedPrefs.RATE_LIMIT_MAX, new ValidatedPrefs(prefs).rateLimitGlobal);
+	}
+
+	@Test
+	public void testRateLimitOverflow() {
+		Assert.assertEquals(RateLimitOverflow.DIGEST, new ValidatedPrefs(prefs).rateLimitOverflow);
+
+		sharedPreferences.edit().putString("rateLimitOverflow", "delay").commit();
+		Assert.assertEquals(RateLimitOverflow.DELAY, new ValidatedPrefs(prefs).rateLimitOverflow);
+
+		sharedPreferences.edit().putString("rateLimitOverflow", "invalid").commit();
+		Assert.assertEquals(RateLimitOverflow.DIGEST, new ValidatedPrefs(prefs).rateLimitOverflow);
+	}
+
+	@Test
+	public void testSecurity() {
+		Assert.assertEquals(SecurityMode.STARTTLS_REQUIRED, new ValidatedPrefs(prefs).security);
+
+		sharedPreferences.edit().putString("security", "implicit_tls").commit();
+		Assert.assertEquals(SecurityMode.IMPLICIT_TLS, new ValidatedPrefs(prefs).security);
+		Assert.assertTrue(new ValidatedPrefs(prefs).hasAllPrefs());
+
+		sharedPreferences.edit().putString("security", "starttls").commit();
+		Assert.assertNull(new ValidatedPrefs(prefs).security);
+
+		sharedPreferences.edit().putString("security", "invalid").commit();
+		Assert.assertNull(new ValidatedPrefs(prefs).security);
+		Assert.assertFalse(new ValidatedPrefs(prefs).hasAllPrefs());
+	}
+
+	@Test
+	public void testRelays() {
+		sharedPreferences.edit().putString("node", " primary  backup:2525 [2001:db8::1] [2001:db8::2]:465 2001:db8::3 ").commit();
+		ValidatedPrefs vp = new ValidatedPrefs(prefs);
+		Assert.assertTrue(vp.hasAllPrefs());
+		Assert.assertEquals(Arrays.asList(new Relay("primary", 1), new Relay("backup", 2525), new Relay("2001:db8::1", 1), new Relay("2001:db8::2",
+				465), new Relay("2001:db8::3", 1)), vp.relays);
+	}
+
+	@Test
+	public void testInvalidRelay() {
+		sharedPreferences.edit().putString("node", "primary backup:port").commit();
+		Assert.assertFalse(new ValidatedPrefs(prefs).hasAllPrefs());
+
+		sharedPreferences.edit().putString("node", "primary backup:70000").commit();
+		Assert.assertFalse(new ValidatedPrefs(prefs).hasAllPrefs());
+
+		sharedPreferences.edit().putString("node", "[2001:db8::1").commit();
+		Assert.assertFalse(new ValidatedPrefs(prefs).hasAllPrefs());
+	}
 }
@@ -0,0 +1,105 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.net.AdaptiveTimeouts.Phase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestAdaptiveTimeouts {
+	AdaptiveTimeouts timeouts;
+
+	@Before
+	public void create() {
+		timeouts = new AdaptiveTimeouts();
+	}
+
+	private void samples(Phase phase, int count, long ms) {
+		for (int i = 0; i < count; i++)
+			timeouts.success(phase, ms);
+	}
+
+	@Test
+	public void noSamples() {
+		for (Phase phase : Phase.values())
+			assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(phase));
+	}
+
+	@Test
+	public void tooFewSamples() {
+		samples(Phase.CONNECT, AdaptiveTimeouts.MIN_SAMPLES - 1, 50);
+		assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(Phase.CONNECT));
+	}
+
+	@Test
+	public void fastNetwork() {
+		samples(Phase.CONNECT, AdaptiveTimeouts.MIN_SAMPLES, 50);
+		assertEquals(AdaptiveTimeouts.MIN_MS, timeouts.get(Phase.CONNECT));
+		assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(Phase.GREETING));
+	}
+
+	@Test
+	public void slowNetwork() {
+		samples(Phase.AUTH, AdaptiveTimeouts.MIN_SAMPLES, 1500);
+		assertEquals(2000 * AdaptiveTimeouts.MULTIPLIER, timeouts.get(Phase.AUTH));
+	}
+
+	@Test
+	public void verySlowNetwork() {
+		samples(Phase.DATA_END, AdaptiveTimeouts.MIN_SAMPLES, 9000);
+		assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(Phase.DATA_END));
+	}
+
+	@Test
+	public void outliers() {
+		samples(Phase.TLS, AdaptiveTimeouts.SAMPLES - 2, 150);
+		samples(Phase.TLS, 2, 20000);
+		assertEquals(AdaptiveTimeouts.MIN_MS, timeouts.get(Phase.TLS));
+	}
+
+	@Test
+	public void backOff() {
+		samples(Phase.GREETING, AdaptiveTimeouts.SAMPLES, 50);
+		assertEquals(AdaptiveTimeouts.MIN_MS, timeouts.get(Phase.GREETING));
+
+		timeouts.timeout(Phase.GREETING, timeouts.get(Phase.GREETING));
+		assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(Phase.GREETING));
+	}
+
+	@Test
+	public void relearn() {
+		samples(Phase.AUTH, AdaptiveTimeouts.SAMPLES, 50);
+		timeouts.timeout(Phase.AUTH, timeouts.get(Phase.AUTH));
+
+		samples(Phase.AUTH, AdaptiveTimeouts.MIN_SAMPLES - 2, 1500);
+		assertEquals(AdaptiveTimeouts.MAX_MS, timeouts.get(Phase.AUTH));
+
+		samples(Phase.AUTH, 1, 1500);
+		assertTrue(timeouts.get(Phase.AUTH) > AdaptiveTimeouts.MIN_MS);
+	}
+}
@@ -0,0 +1,252 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestAuthSMTPTLSClient {
+	AuthSMTPTLSClient client;
+	ByteArrayOutputStream output;
+
+	@Before
+	public void create() throws Exception {
+		client = new AuthSMTPTLSClient(new TLSSessions(), false);
+		output = new ByteArrayOutputStream();
+		Whitebox.setInternalState(client, "_output_", output);
+		Whitebox.setInternalState(client, "_writer", new BufferedWriter(new OutputStreamWriter(output, "US-ASCII")));
+	}
+
+	private void replies(String replies) {
+		Whitebox.setInternalState(client, "_reader", new BufferedReader(new StringReader(replies)));
+	}
+
+	private void pipelining() throws Exception {
+		replies("250-server\r\n250 PIPELINING\r\n");
+		client.elogin("client");
+		output.reset();
+	}
+
+	private String sent() throws Exception {
+		return output.toString("US-ASCII");
+	}
+
+	@Test
+	public void extensions() throws Exception {
+		replies("250-server\r\n250-pipelining\r\n250-STARTTLS\r\n250 AUTH PLAIN\r\n");
+		assertTrue(client.elogin("client"));
+		assertTrue(client.hasExtension("PIPELINING"));
+		assertTrue(client.hasExtension("STARTTLS"));
+		assertTrue(client.hasExtension("AUTH"));
+		assertFalse(client.hasExtension("SERVER"));
+
+		replies("250-server\r\n250 AUTH PLAIN\r\n");
+		assertTrue(client.elogin("client"));
+		assertFalse(client.hasExtension("PIPELINING"));
+		assertFalse(client.hasExtension("STARTTLS"));
+	}
+
+	@Test
+	public void pipelined() throws Exception {
+		pipelining();
+		replies("250 OK\r\n250 OK\r\n250 OK\r\n354 Go ahead\r\n250 Queued\r\n");
+
+		Writer writer = client.startMessage("sender", Arrays.asList("recipient1", "recipient2"));
+		assertEquals("MAIL FROM:<sender>\r\nRCPT TO:<recipient1>\r\nRCPT TO:<recipient2>\r\nDATA\r\n", sent());
+
+		output.reset();
+		writer.write("Subject: test\r\n\r\n.body\r\n");
+		writer.close();
+		assertEquals("Subject: test\r\n\r\n..body\r\n.\r\n", sent());
+		assertTrue(client.completePendingCommand());
+	}
+
+	@Test
+	public void dataEndLatency() throws Exception {
+		AdaptiveTimeouts timeouts = new AdaptiveTimeouts();
+		client.setTimeouts(timeouts);
+		replies("250 Queued\r\n554 Rejected\r\n");
+
+		assertTrue(client.completePendingCommand());
+		assertEquals(1, timeouts.getLatency(AdaptiveTimeouts.Phase.DATA_END).getCount());
+
+		assertFalse(client.completePendingCommand());
+		assertEquals(1, timeouts.getLatency(AdaptiveTimeouts.Phase.DATA_END).getCount());
+	}
+
+	@Test
+	public void greetingTimeout() throws Exception {
+		AdaptiveTimeouts timeouts = new AdaptiveTimeouts();
+		for (int i = 0; i < 100; i++)
+			timeouts.success(AdaptiveTimeouts.Phase.GREETING, 1);
+		assertEquals(AdaptiveTimeouts.MIN_MS, timeouts.get(AdaptiveTimeouts.Phase.GREETING));
+
+		final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread greeter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					try {
+						OutputStream out = socket.getOutputStream();
+						out.write("220 server\r\n".getBytes("US-ASCII"));
+						out.flush();
+						socket.getInputStream().read();
+					} finally {
+						socket.close();
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		greeter.start();
+
+		try {
+			client = new AuthSMTPTLSClient(new TLSSessions(), false);
+			client.setDefaultTimeout(AdaptiveTimeouts.MAX_MS);
+			client.setTimeouts(timeouts);
+			client.connect(server.getInetAddress().getHostAddress(), server.getLocalPort());
+
+			assertEquals(220, client.getReplyCode());
+			assertEquals(AdaptiveTimeouts.MAX_MS, client.getSoTimeout());
+		} finally {
+			client.disconnect();
+			server.close();
+			greeter.join();
+		}
+	}
+
+	@Test
+	public void commandLatency() throws Exception {
+		File file = File.createTempFile("latency", null);
+		try {
+			CommandLatency latency = new CommandLatency(file);
+			client.setLatency(latency);
+			pipelining();
+			replies("250 OK\r\n250 OK\r\n354 Go ahead\r\n250 Queued\r\n");
+
+			client.startMessage("sender", Arrays.asList("recipient")).close();
+			assertTrue(client.completePendingCommand());
+
+			assertEquals(Arrays.asList("DATA", "EHLO", "EOM", "MAIL", "RCPT"), Arrays.asList(latency.getCommands().keySet().toArray()));
+			assertEquals(1, latency.getCommands().get("RCPT").getCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void pipelinedRejectedSender() throws Exception {
+		pipelining();
+		replies("550 No\r\n503 Need MAIL\r\n503 Need RCPT\r\n");
+
+		try {
+			client.startMessage("sender", Arrays.asList("recipient1"));
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals("MAIL 550", e.getMessage());
+			assertEquals(550, e.code);
+		}
+		assertEquals(503, client.getReplyCode());
+	}
+
+	@Test
+	public void pipelinedRejectedRecipient() throws Exception {
+		pipelining();
+		replies("250 OK\r\n550 No\r\n250 OK\r\n354 Go ahead\r\n");
+
+		client.startMessage("sender", Arrays.asList("recipient1", "recipient2")).close();
+		assertEquals(Arrays.asList("recipient1"), client.getRejectedRecipients());
+		assertNotNull(Whitebox.getInternalState(client, "_output_"));
+	}
+
+	@Test
+	public void pipelinedRejectedAllRecipients() throws Exception {
+		pipelining();
+		replies("250 OK\r\n550 No\r\n550 No\r\n354 Go ahead\r\n");
+
+		try {
+			client.startMessage("sender", Arrays.asList("recipient1", "recipient2"));
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals("RCPT 550", e.getMessage());
+		}
+		assertEquals(Arrays.asList("recipient1", "recipient2"), client.getRejectedRecipients());
+		assertNull(Whitebox.getInternalState(client, "_output_"));
+	}
+
+	@Test
+	public void sequential() throws Exception {
+		replies("250 OK\r\n250 OK\r\n354 Go ahead\r\n");
+
+		Writer writer = client.startMessage("sender", Arrays.asList("recipient1"));
+		assertEquals("MAIL FROM:<sender>\r\nRCPT TO:<recipient1>\r\nDATA\r\n", sent());
+		writer.close();
+	}
+
+	@Test
+	public void sequentialRejectedRecipient() throws Exception {
+		replies("250 OK\r\n550 No\r\n250 OK\r\n354 Go ahead\r\n");
+
+		client.startMessage("sender", Arrays.asList("recipient1", "recipient2")).close();
+		assertEquals("MAIL FROM:<sender>\r\nRCPT TO:<recipient1>\r\nRCPT TO:<recipient2>\r\nDATA\r\n\r\n.\r\n", sent());
+		assertEquals(Arrays.asList("recipient1"), client.getRejectedRecipients());
+	}
+
+	@Test
+	public void sequentialRejectedAllRecipients() throws Exception {
+		replies("250 OK\r\n550 No\r\n450 Later\r\n");
+
+		try {
+			client.startMessage("sender", Arrays.asList("recipient1", "recipient2"));
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals("RCPT 450", e.getMessage());
+			assertFalse(e.isPermanent());
+		}
+		assertEquals("MAIL FROM:<sender>\r\nRCPT TO:<recipient1>\r\nRCPT TO:<recipient2>\r\n", sent());
+	}
+}
@@ -0,0 +1,123 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestCommandLatency {
+	File file;
+
+	@Before
+	public void create() throws Exception {
+		file = File.createTempFile("latency", null);
+		assertTrue(file.delete());
+	}
+
+	@After
+	public void destroy() {
+		file.delete();
+	}
+
+	private static long ms(long ms) {
+		return TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	@Test
+	public void empty() {
+		CommandLatency latency = new CommandLatency(file);
+		assertTrue(latency.getCommands().isEmpty());
+	}
+
+	@Test
+	public void record() {
+		CommandLatency latency = new CommandLatency(file);
+		for (int i = 0; i < 9; i++)
+			latency.record("EHLO", ms(30));
+		latency.record("EHLO", ms(730));
+		latency.record("CONN", ms(100));
+
+		assertEquals(Arrays.asList("CONN", "EHLO"), Arrays.asList(latency.getCommands().keySet().toArray()));
+
+		CommandLatency.Histogram ehlo = latency.getCommands().get("EHLO");
+		assertEquals(10, ehlo.getCount());
+		assertEquals(100, ehlo.getMeanMs());
+		assertEquals(730, ehlo.getMaxMs());
+		assertEquals(50, ehlo.percentileMs(0.5));
+		assertEquals(730, ehlo.percentileMs(0.95));
+	}
+
+	@Test
+	public void persisted() {
+		CommandLatency latency = new CommandLatency(file);
+		latency.record("MAIL", ms(20));
+		latency.record("MAIL", ms(40));
+		latency.save();
+
+		CommandLatency.Histogram mail = new CommandLatency(file).getCommands().get("MAIL");
+		assertEquals(2, mail.getCount());
+		assertEquals(30, mail.getMeanMs());
+		assertEquals(40, mail.getMaxMs());
+		assertEquals(20, mail.percentileMs(0.5));
+	}
+
+	@Test
+	public void unknownVersion() throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] { 0, 0, 0, 99 });
+		out.close();
+
+		assertTrue(new CommandLatency(file).getCommands().isEmpty());
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+		final CommandLatency latency = new CommandLatency(file);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++)
+						latency.record("RCPT", ms(j % 100));
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(4000, latency.getCommands().get("RCPT").getCount());
+		assertEquals(99, latency.getCommands().get("RCPT").getMaxMs());
+	}
+}
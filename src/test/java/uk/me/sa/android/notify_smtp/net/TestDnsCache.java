@@ -0,0 +1,134 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestDnsCache {
+	long now;
+	int lookups;
+	InetAddress[] addresses;
+	DnsCache dns;
+
+	@Before
+	public void create() throws Exception {
+		now = 0;
+		lookups = 0;
+		addresses = new InetAddress[] { InetAddress.getByName("192.0.2.1"), InetAddress.getByName("2001:db8::1") };
+		dns = new DnsCache() {
+			@Override
+			long now() {
+				return now;
+			}
+
+			@Override
+			InetAddress[] lookup(String hostname) throws UnknownHostException {
+				lookups++;
+				if (addresses == null)
+					throw new UnknownHostException(hostname);
+				return addresses;
+			}
+		};
+	}
+
+	@Test
+	public void cached() throws Exception {
+		assertArrayEquals(addresses, dns.resolve("wifi", "node"));
+		now += DnsCache.TTL_MS - 1;
+		assertArrayEquals(addresses, dns.resolve("wifi", "node"));
+		assertEquals(1, lookups);
+		assertEquals(1, dns.getHits());
+		assertEquals(1, dns.getMisses());
+	}
+
+	@Test
+	public void expired() throws Exception {
+		dns.resolve("wifi", "node");
+		now += DnsCache.TTL_MS;
+		dns.resolve("wifi", "node");
+		assertEquals(2, lookups);
+	}
+
+	@Test
+	public void networkChanged() throws Exception {
+		dns.resolve("wifi", "node");
+		dns.resolve("mobile", "node");
+		dns.resolve("mobile", "node");
+		assertEquals(2, lookups);
+	}
+
+	@Test
+	public void hostnames() throws Exception {
+		dns.resolve("wifi", "node1");
+		dns.resolve("wifi", "node2");
+		dns.resolve("wifi", "node1");
+		assertEquals(2, lookups);
+	}
+
+	@Test
+	public void removed() throws Exception {
+		dns.resolve("wifi", "node");
+		dns.remove("node");
+		dns.resolve("wifi", "node");
+		assertEquals(2, lookups);
+	}
+
+	@Test
+	public void cleared() throws Exception {
+		dns.resolve("wifi", "node");
+		dns.clear();
+		dns.resolve("wifi", "node");
+		assertEquals(2, lookups);
+	}
+
+	@Test
+	public void unmodified() throws Exception {
+		dns.resolve("wifi", "node");
+		dns.resolve("wifi", "node")[0] = null;
+		assertArrayEquals(addresses, dns.resolve("wifi", "node"));
+	}
+
+	@Test
+	public void failureNotCached() throws Exception {
+		InetAddress[] resolved = addresses;
+		addresses = null;
+		try {
+			dns.resolve("wifi", "node");
+			fail();
+		} catch (UnknownHostException e) {
+		}
+
+		addresses = resolved;
+		assertArrayEquals(addresses, dns.resolve("wifi", "node"));
+		assertEquals(2, lookups);
+	}
+}
@@ -0,0 +1,247 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestHappyEyeballs {
+	enum Outcome {
+		CONNECT, FAIL, HANG
+	}
+
+	InetAddress ipv4a;
+	InetAddress ipv4b;
+	InetAddress ipv6a;
+	InetAddress ipv6b;
+	Map<InetAddress, Outcome> outcomes = new HashMap<InetAddress, Outcome>();
+	Map<InetAddress, TestSocket> sockets = new HashMap<InetAddress, TestSocket>();
+	HappyEyeballs eyeballs;
+
+	class TestSocket extends Socket {
+		CountDownLatch closed = new CountDownLatch(1);
+		InetAddress address;
+
+		@Override
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			address = ((InetSocketAddress)endpoint).getAddress();
+			synchronized (sockets) {
+				sockets.put(address, this);
+			}
+
+			switch (outcomes.get(address)) {
+			case CONNECT:
+				return;
+
+			case FAIL:
+				throw new ConnectException(address.toString());
+
+			case HANG:
+			default:
+				try {
+					if (!closed.await(timeout, TimeUnit.MILLISECONDS))
+						throw new SocketTimeoutException(address.toString());
+				} catch (InterruptedException e) {
+				}
+				throw new IOException("Closed");
+			}
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return address;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed.countDown();
+		}
+
+		boolean isClosedByTest() {
+			return closed.getCount() == 0;
+		}
+	}
+
+	SocketFactory factory = new SocketFactory() {
+		@Override
+		public Socket createSocket() {
+			return new TestSocket();
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	@Before
+	public void create() throws Exception {
+		ipv4a = InetAddress.getByName("192.0.2.1");
+		ipv4b = InetAddress.getByName("192.0.2.2");
+		ipv6a = InetAddress.getByName("2001:db8::1");
+		ipv6b = InetAddress.getByName("2001:db8::2");
+		eyeballs = new HappyEyeballs();
+	}
+
+	@Test
+	public void interleave() {
+		assertEquals(Arrays.asList(ipv6a, ipv4a, ipv6b, ipv4b), eyeballs.order("wifi", new InetAddress[] { ipv4a, ipv4b, ipv6a, ipv6b }));
+	}
+
+	@Test
+	public void singleFamily() {
+		assertEquals(Arrays.asList(ipv4a, ipv4b), eyeballs.order("wifi", new InetAddress[] { ipv4a, ipv4b }));
+	}
+
+	@Test
+	public void immediateConnect() throws Exception {
+		outcomes.put(ipv6a, Outcome.CONNECT);
+		outcomes.put(ipv4a, Outcome.CONNECT);
+
+		TestSocket socket = (TestSocket)eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+		assertEquals(ipv6a, socket.address);
+		assertFalse(socket.isClosedByTest());
+	}
+
+	@Test
+	public void failover() throws Exception {
+		outcomes.put(ipv6a, Outcome.FAIL);
+		outcomes.put(ipv4a, Outcome.CONNECT);
+
+		long start = System.nanoTime();
+		TestSocket socket = (TestSocket)eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+		assertEquals(ipv4a, socket.address);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < HappyEyeballs.ATTEMPT_DELAY_MS);
+	}
+
+	@Test
+	public void staggered() throws Exception {
+		outcomes.put(ipv6a, Outcome.HANG);
+		outcomes.put(ipv4a, Outcome.CONNECT);
+
+		long start = System.nanoTime();
+		TestSocket socket = (TestSocket)eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(ipv4a, socket.address);
+		assertTrue(elapsed >= HappyEyeballs.ATTEMPT_DELAY_MS);
+		assertTrue(elapsed < 5000);
+		assertFalse(socket.isClosedByTest());
+
+		synchronized (sockets) {
+			assertTrue(sockets.get(ipv6a).isClosedByTest());
+		}
+	}
+
+	@Test
+	public void preference() throws Exception {
+		outcomes.put(ipv6a, Outcome.FAIL);
+		outcomes.put(ipv4a, Outcome.CONNECT);
+
+		eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+		assertEquals(Arrays.asList(ipv4a, ipv6a), eyeballs.order("wifi", new InetAddress[] { ipv6a, ipv4a }));
+		assertEquals(Arrays.asList(ipv6a, ipv4a), eyeballs.order("mobile", new InetAddress[] { ipv6a, ipv4a }));
+
+		outcomes.put(ipv6a, Outcome.CONNECT);
+		outcomes.put(ipv4a, Outcome.FAIL);
+
+		eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+		assertEquals(Arrays.asList(ipv6a, ipv4a), eyeballs.order("wifi", new InetAddress[] { ipv6a, ipv4a }));
+	}
+
+	@Test
+	public void allFailed() throws Exception {
+		outcomes.put(ipv6a, Outcome.FAIL);
+		outcomes.put(ipv4a, Outcome.FAIL);
+
+		try {
+			eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 5000);
+			fail();
+		} catch (ConnectException e) {
+			assertEquals(ipv4a.toString(), e.getMessage());
+		}
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		outcomes.put(ipv6a, Outcome.HANG);
+		outcomes.put(ipv4a, Outcome.HANG);
+
+		try {
+			eyeballs.connect(factory, "wifi", new InetAddress[] { ipv4a, ipv6a }, 25, 500);
+			fail();
+		} catch (SocketTimeoutException e) {
+		}
+
+		synchronized (sockets) {
+			assertTrue(sockets.get(ipv6a).isClosedByTest());
+			assertTrue(sockets.get(ipv4a).isClosedByTest());
+		}
+	}
+
+	@Test
+	public void noAddresses() throws Exception {
+		try {
+			eyeballs.connect(factory, "wifi", new InetAddress[0], 25, 5000);
+			fail();
+		} catch (IOException e) {
+			assertSame(IOException.class, e.getClass());
+		}
+	}
+}
@@ -19,25 +19,44 @@
 package uk.me.sa.android.notify_smtp.net;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.net.util.Base64;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.internal.ReflectionHelpers;
 
+import uk.me.sa.android.notify_smtp.data.Event;
 import uk.me.sa.android.notify_smtp.data.Message;
 import android.os.Build;
 
 import com.btmatthews.hamcrest.regex.PatternMatcher;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(emulateSdk = 18)
 public class TestMessage {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test(expected = IllegalArgumentException.class)
 	public void noRecipients() throws Exception {
 		new Message("subject", new Date(), "sender", Collections.<String>emptySet());
@@ -51,8 +70,8 @@ public class TestMessage {
 		assertThat(new Message("subject", new Date(), "sender", Arrays.asList("recipient1")).toString(),
 				PatternMatcher.matches("Message-Id: <[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[0-9a-f]{4}-[0-9a-f]{12}@android.invalid>\r\n"
 						+ "Date: [A-Z][a-z][a-z], [0-9]{2} [A-Z][a-z][a-z] [0-9]{4} [0-9]{2}:[0-9]{2}:[0-9]{2} [+-][0-9]{4}\r\n" + "Subject: subject\r\n"
-						+ "From: Android Device <sender>\r\n" + "To: <recipient1>\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n"
-						+ "Content-Transfer-Encoding: 8bit\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
+						+ "From: Android Device <sender>\r\n" + "To: <recipient1>\r\n" + "MIME-Version: 1.0\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n"
+						+ "Content-Transfer-Encoding: quoted-printable\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
 	}
 
 	@Test
@@ -63,8 +82,8 @@ public class TestMessage {
 		assertThat(new Message("subject", new Date(), "sender", Arrays.asList("recipient1", "recipient2")).toString(),
 				PatternMatcher.matches("Message-Id: <[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[0-9a-f]{4}-[0-9a-f]{12}@android.invalid>\r\n"
 						+ "Date: [A-Z][a-z][a-z], [0-9]{2} [A-Z][a-z][a-z] [0-9]{4} [0-9]{2}:[0-9]{2}:[0-9]{2} [+-][0-9]{4}\r\n" + "Subject: subject\r\n"
-						+ "From: Android Device <sender>\r\n" + "To: <recipient1>, <recipient2>\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n"
-						+ "Content-Transfer-Encoding: 8bit\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
+						+ "From: Android Device <sender>\r\n" + "To: <recipient1>, <recipient2>\r\n" + "MIME-Version: 1.0\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n"
+						+ "Content-Transfer-Encoding: quoted-printable\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
 	}
 
 	@Test
@@ -76,6 +95,152 @@ public class TestMessage {
 				PatternMatcher.matches("Message-Id: <[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[0-9a-f]{4}-[0-9a-f]{12}@android.invalid>\r\n"
 						+ "Date: [A-Z][a-z][a-z], [0-9]{2} [A-Z][a-z][a-z] [0-9]{4} [0-9]{2}:[0-9]{2}:[0-9]{2} [+-][0-9]{4}\r\n" + "Subject: subject\r\n"
 						+ "From: Android Device <sender>\r\n" + "To: <recipient1>, <recipient2>, <recipient3>\r\n"
-						+ "Content-Type: text/plain; charset=UTF-8\r\n" + "Content-Transfer-Encoding: 8bit\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
+						+ "MIME-Version: 1.0\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n" + "Content-Transfer-Encoding: quoted-printable\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"));
+	}
+
+	@Test
+	public void digest() throws Exception {
+		ReflectionHelpers.setStaticFieldReflectively(Build.class, "MANUFACTURER", "Android");
+		ReflectionHelpers.setStaticFieldReflectively(Build.class, "MODEL", "Device");
+
+		List<Event> events = Arrays.asList(new Event("Missed phone call", "com.android.dialer", 0), new Event("Message received",
+				"Alice\nHello", "com.google.android.talk", 60000), new Event("Message received", "", 120000));
+
+		assertThat(new Message(events, "sender", Arrays.asList("recipient1")).toString(),
+				PatternMatcher.matches("Message-Id: <[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[0-9a-f]{4}-[0-9a-f]{12}@android.invalid>\r\n"
+						+ "Date: [A-Z][a-z][a-z], [0-9]{2} [A-Z][a-z][a-z] [0-9]{4} [0-9]{2}:[0-9]{2}:[0-9]{2} [+-][0-9]{4}\r\n"
+						+ "Subject: Missed phone call, Message received \\(3\\)\r\n" + "From: Android Device <sender>\r\n" + "To: <recipient1>\r\n"
+						+ "MIME-Version: 1.0\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n" + "Content-Transfer-Encoding: quoted-printable\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"
+						+ "[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2} Missed phone call \\(com.android.dialer\\)\r\n"
+						+ "[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2} Message received \\(com.google.android.talk\\)\r\n"
+						+ "  Alice\r\n" + "  Hello\r\n"
+						+ "[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2} Message received\r\n"));
+	}
+
+	@Test
+	public void content() throws Exception {
+		ReflectionHelpers.setStaticFieldReflectively(Build.class, "MANUFACTURER", "Android");
+		ReflectionHelpers.setStaticFieldReflectively(Build.class, "MODEL", "Device");
+
+		assertThat(new Message(new Event("subject", "Caf\u00e9 = 1\ntrailing ", "com.example", 0), "sender", Arrays.asList("recipient1")).toString(),
+				PatternMatcher.matches("Message-Id: <[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[0-9a-f]{4}-[0-9a-f]{12}@android.invalid>\r\n"
+						+ "Date: [A-Z][a-z][a-z], [0-9]{2} [A-Z][a-z][a-z] [0-9]{4} [0-9]{2}:[0-9]{2}:[0-9]{2} [+-][0-9]{4}\r\n" + "Subject: subject\r\n"
+						+ "From: Android Device <sender>\r\n" + "To: <recipient1>\r\n" + "MIME-Version: 1.0\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n"
+						+ "Content-Transfer-Encoding: quoted-printable\r\n" + "X-Auto-Response-Suppress: OOF\r\n" + "\r\n"
+						+ "Caf=C3=A9 =3D 1\r\n" + "trailing=20\r\n"));
+	}
+
+	@Test
+	public void longBodyLine() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			line.append("x");
+
+		String message = new Message(new Event("subject", line.toString(), "com.example", 0), "sender", Arrays.asList("recipient1")).toString();
+		String body = message.substring(message.indexOf("\r\n\r\n") + 4);
+		assertEquals(line.substring(0, 75) + "=\r\n" + line.substring(75) + "\r\n", body);
+	}
+
+	@Test
+	public void encodedSubject() throws Exception {
+		String message = new Message("Caf\u00e9", new Date(), "sender", Arrays.asList("recipient1")).toString();
+		assertTrue(message.contains("\r\nSubject: =?UTF-8?B?Q2Fmw6k=?=\r\n"));
+	}
+
+	@Test
+	public void foldedSubject() throws Exception {
+		StringBuilder subject = new StringBuilder();
+		for (int i = 0; i < 20; i++)
+			subject.append(i == 0 ? "" : " ").append("word").append(i);
+
+		String message = new Message(subject.toString(), new Date(), "sender", Arrays.asList("recipient1")).toString();
+		String header = message.substring(message.indexOf("Subject:"), message.indexOf("\r\nFrom:"));
+		for (String line : header.split("\r\n"))
+			assertTrue(line, line.length() <= 76);
+		assertEquals("Subject: " + subject, header.replace("\r\n", ""));
+	}
+
+	@Test
+	public void foldedEncodedSubject() throws Exception {
+		StringBuilder subject = new StringBuilder();
+		for (int i = 0; i < 40; i++)
+			subject.append("\u00e9\u20ac");
+
+		String message = new Message(subject.toString(), new Date(), "sender", Arrays.asList("recipient1")).toString();
+		String header = message.substring(message.indexOf("Subject:"), message.indexOf("\r\nFrom:"));
+		StringBuilder decoded = new StringBuilder();
+		for (String line : header.split("\r\n")) {
+			assertTrue(line, line.length() <= 76);
+			String word = line.substring(line.indexOf("=?UTF-8?B?") + 10, line.length() - 2);
+			decoded.append(new String(Base64.decodeBase64(word), "UTF-8"));
+		}
+		assertEquals(subject.toString(), decoded.toString());
+	}
+
+	@Test
+	public void headerInjection() throws Exception {
+		String message = new Message("subject\r\nBcc: other", new Date(), "sender", Arrays.asList("recipient1")).toString();
+		assertTrue(message.contains("\r\nSubject: subject Bcc: other\r\n"));
+	}
+
+	@Test
+	public void foldedRecipients() throws Exception {
+		List<String> recipients = Arrays.asList("recipient1@example.com", "recipient2@example.com", "recipient3@example.com",
+				"recipient4@example.com");
+
+		String message = new Message("subject", new Date(), "sender", recipients).toString();
+		assertTrue(message.contains("\r\nTo: <recipient1@example.com>, <recipient2@example.com>,\r\n"
+				+ " <recipient3@example.com>, <recipient4@example.com>\r\n"));
+	}
+
+	@Test
+	public void writeTo() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			content.append("line ").append(i).append(" caf\u00e9\n");
+
+		Message message = new Message(new Event("subject", content.toString(), "com.example", 0), "sender", Arrays.asList("recipient1"));
+		StringWriter writer = new StringWriter();
+		message.writeTo(writer);
+		assertEquals(message.toString(), writer.toString());
+	}
+
+	@Test
+	public void picture() throws Exception {
+		File file = folder.newFile("picture.jpg");
+		byte[] data = new byte[100];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte)i;
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+
+		String message = new Message(new Event("subject", "text", file.getPath(), "com.example", 0), "sender", Arrays.asList("recipient1")).toString();
+		Matcher m = Pattern.compile("Content-Type: multipart/mixed; boundary=\"([^\"]+)\"\r\n").matcher(message);
+		assertTrue(message, m.find());
+		String boundary = m.group(1);
+
+		String body = message.substring(message.indexOf("\r\n\r\n") + 4);
+		String encoded = Base64.encodeBase64StringUnChunked(data);
+		assertEquals("--" + boundary + "\r\n" + "Content-Type: text/plain; charset=UTF-8\r\n" + "Content-Transfer-Encoding: quoted-printable\r\n"
+				+ "\r\n" + "text\r\n" + "--" + boundary + "\r\n" + "Content-Type: image/jpeg\r\n" + "Content-Transfer-Encoding: base64\r\n"
+				+ "Content-Disposition: inline; filename=\"picture.jpg\"\r\n" + "\r\n" + encoded.substring(0, 76) + "\r\n"
+				+ encoded.substring(76) + "\r\n" + "--" + boundary + "--\r\n", body);
+	}
+
+	@Test
+	public void pictureMissing() throws Exception {
+		String message = new Message(new Event("subject", "text", new File(folder.getRoot(), "missing.jpg").getPath(), "com.example", 0), "sender",
+				Arrays.asList("recipient1")).toString();
+		assertTrue(message.contains("\r\nContent-Type: text/plain; charset=UTF-8\r\n"));
+		assertFalse(message.contains("multipart"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void digestNoEvents() throws Exception {
+		new Message(Collections.<Event>emptyList(), "sender", Arrays.asList("recipient1"));
 	}
 }
@@ -0,0 +1,290 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
+import uk.me.sa.android.notify_smtp.data.RateLimitOverflow;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+import uk.me.sa.android.notify_smtp.util.RetryScheduler;
+import uk.me.sa.android.notify_smtp.util.RunJobsAnswer;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestRateLimiter {
+	static final long INTERVAL_MS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Mock
+	SendQueue queue;
+
+	@Mock
+	RetryScheduler scheduler;
+
+	@Mock
+	ValidatedPrefs prefs;
+
+	RunJobsAnswer releases;
+	File file;
+	long now;
+	RateLimiter limiter;
+
+	@Before
+	public void create() throws Exception {
+		MockitoAnnotations.initMocks(this);
+
+		releases = new RunJobsAnswer();
+		Mockito.doAnswer(releases).when(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+		Whitebox.setInternalState(prefs, "rateLimitPackage", 6);
+		Whitebox.setInternalState(prefs, "rateLimitGlobal", 0);
+		Whitebox.setInternalState(prefs, "rateLimitOverflow", RateLimitOverflow.DELAY);
+
+		file = new File(folder.getRoot(), "held");
+		now = 0;
+		limiter = create(new Outbox(file));
+	}
+
+	RateLimiter create(Outbox store) {
+		return new RateLimiter(queue, scheduler, store) {
+			@Override
+			long now() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void unlimited() throws Exception {
+		Whitebox.setInternalState(prefs, "rateLimitPackage", 0);
+
+		for (int i = 0; i < 100; i++)
+			limiter.add(prefs, new Event("event", "com.example", i));
+
+		Mockito.verify(queue, Mockito.times(100)).add(Mockito.same(prefs), Mockito.any(Event.class));
+		Mockito.verify(scheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.anyLong());
+	}
+
+	@Test
+	public void drop() throws Exception {
+		Whitebox.setInternalState(prefs, "rateLimitOverflow", RateLimitOverflow.DROP);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+
+		Mockito.verify(queue).add(prefs, event1);
+		Mockito.verify(queue, Mockito.never()).add(prefs, event2);
+		Mockito.verify(scheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.anyLong());
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void perPackage() throws Exception {
+		Event event1 = new Event("one", "com.example.one", 1);
+		Event event2 = new Event("two", "com.example.two", 2);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+
+		Mockito.verify(queue).add(prefs, event1);
+		Mockito.verify(queue).add(prefs, event2);
+	}
+
+	@Test
+	public void global() throws Exception {
+		Whitebox.setInternalState(prefs, "rateLimitPackage", 0);
+		Whitebox.setInternalState(prefs, "rateLimitGlobal", 6);
+		Event event1 = new Event("one", "com.example.one", 1);
+		Event event2 = new Event("two", "com.example.two", 2);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+
+		Mockito.verify(queue).add(prefs, event1);
+		Mockito.verify(queue, Mockito.never()).add(prefs, event2);
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(INTERVAL_MS));
+	}
+
+	@Test
+	public void delay() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Event event3 = new Event("three", "com.example", 3);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+		limiter.add(prefs, event3);
+
+		Mockito.verify(queue).add(prefs, event1);
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(INTERVAL_MS));
+
+		now += INTERVAL_MS;
+		assertEquals(1, releases.run());
+		Mockito.verify(queue).add(prefs, event2);
+		Mockito.verify(queue, Mockito.never()).add(prefs, event3);
+		Mockito.verify(scheduler, Mockito.times(2)).schedule(Mockito.isA(Runnable.class), Mockito.eq(INTERVAL_MS));
+
+		now += INTERVAL_MS;
+		assertEquals(1, releases.run());
+		Mockito.verify(queue).add(prefs, event3);
+		Mockito.verify(queue, Mockito.times(3)).add(Mockito.same(prefs), Mockito.any(Event.class));
+		assertEquals(0, releases.run());
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void persisted() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Event event3 = new Event("three", "com.example", 3);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+		limiter.add(prefs, event3);
+
+		List<Event> pending = new Outbox(file).pending();
+		assertEquals(2, pending.size());
+		assertEquals("two", pending.get(0).subject);
+		assertEquals("three", pending.get(1).subject);
+
+		now += INTERVAL_MS;
+		assertEquals(1, releases.run());
+		pending = new Outbox(file).pending();
+		assertEquals(1, pending.size());
+		assertEquals("three", pending.get(0).subject);
+	}
+
+	@Test
+	public void replay() throws Exception {
+		limiter.add(prefs, new Event("one", "com.example", 1));
+		limiter.add(prefs, new Event("two", "com.example", 2));
+		limiter.add(prefs, new Event("three", "com.example", 3));
+		Mockito.verify(queue, Mockito.times(1)).add(Mockito.same(prefs), Mockito.any(Event.class));
+
+		releases = new RunJobsAnswer();
+		Mockito.doAnswer(releases).when(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+		limiter = create(new Outbox(file));
+		limiter.replay(prefs);
+
+		assertEquals(1, releases.run());
+		Mockito.verify(queue, Mockito.times(2)).add(Mockito.same(prefs), Mockito.any(Event.class));
+
+		now += INTERVAL_MS;
+		assertEquals(1, releases.run());
+		ArgumentCaptor<Event> captor = ArgumentCaptor.forClass(Event.class);
+		Mockito.verify(queue, Mockito.times(3)).add(Mockito.same(prefs), captor.capture());
+		assertEquals("two", captor.getAllValues().get(1).subject);
+		assertEquals("three", captor.getAllValues().get(2).subject);
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+
+	@Test
+	public void earlierRelease() throws Exception {
+		Event event1 = new Event("one", "com.example.one", 1);
+		Event event2 = new Event("two", "com.example.two", 2);
+		Event event3 = new Event("three", "com.example.two", 3);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+		limiter.add(prefs, event3);
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(INTERVAL_MS));
+		Mockito.verify(queue, Mockito.never()).add(prefs, event3);
+
+		// A faster rate replaces the buckets, so event3 can be released now
+		now += INTERVAL_MS / 2;
+		Whitebox.setInternalState(prefs, "rateLimitPackage", 60);
+		Event event4 = new Event("four", "com.example.one", 4);
+		limiter.add(prefs, event4);
+		Mockito.verify(queue).add(prefs, event4);
+
+		for (int i = 0; i < 10; i++)
+			limiter.add(prefs, new Event("five", "com.example.five", 5));
+		Event event6 = new Event("six", "com.example.five", 6);
+		limiter.add(prefs, event6);
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(0L));
+
+		assertEquals(2, releases.run());
+		Mockito.verify(queue).add(prefs, event3);
+		Mockito.verify(queue, Mockito.never()).add(prefs, event6);
+	}
+
+	@Test
+	public void heldInOrder() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Event event3 = new Event("three", "com.example", 3);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, event2);
+		now += INTERVAL_MS;
+		limiter.add(prefs, event3);
+
+		Mockito.verify(queue, Mockito.never()).add(prefs, event3);
+		assertEquals(1, releases.run());
+		Mockito.verify(queue).add(prefs, event2);
+		Mockito.verify(queue, Mockito.never()).add(prefs, event3);
+	}
+
+	@Test
+	public void digest() throws Exception {
+		Whitebox.setInternalState(prefs, "rateLimitOverflow", RateLimitOverflow.DIGEST);
+		Event event1 = new Event("one", "com.example", 1);
+
+		limiter.add(prefs, event1);
+		limiter.add(prefs, new Event("two", "com.example", 2));
+		limiter.add(prefs, new Event("three", "com.example", 3));
+
+		now += INTERVAL_MS;
+		assertEquals(1, releases.run());
+
+		ArgumentCaptor<Event> captor = ArgumentCaptor.forClass(Event.class);
+		Mockito.verify(queue, Mockito.times(2)).add(Mockito.same(prefs), captor.capture());
+		assertEquals(event1, captor.getAllValues().get(0));
+		assertEquals("two, three (2)", captor.getAllValues().get(1).subject);
+		assertEquals("com.example", captor.getAllValues().get(1).packageName);
+		assertEquals(3, captor.getAllValues().get(1).ts);
+		assertEquals(0, releases.run());
+		assertTrue(new Outbox(file).pending().isEmpty());
+	}
+}
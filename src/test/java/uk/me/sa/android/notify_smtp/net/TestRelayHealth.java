@@ -0,0 +1,108 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.data.Relay;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestRelayHealth {
+	Relay primary = new Relay("primary", 25);
+	Relay secondary = new Relay("secondary", 25);
+	Relay tertiary = new Relay("tertiary", 25);
+	List<Relay> relays = Arrays.asList(primary, secondary, tertiary);
+	long now;
+	RelayHealth health;
+
+	@Before
+	public void create() {
+		now = 0;
+		health = new RelayHealth() {
+			@Override
+			long now() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void priority() {
+		assertEquals(relays, health.order(relays));
+	}
+
+	@Test
+	public void failures() {
+		health.failure(primary);
+		health.failure(primary);
+		health.failure(secondary);
+
+		assertEquals(Arrays.asList(tertiary, secondary, primary), health.order(relays));
+		assertEquals(2, health.getFailures(primary));
+	}
+
+	@Test
+	public void success() {
+		health.failure(primary);
+		health.success(primary, 42);
+
+		assertEquals(Arrays.asList(secondary, tertiary, primary), health.order(relays));
+		assertEquals(0, health.getFailures(primary));
+		assertEquals(42, health.getLatency(primary));
+		assertEquals(-1, health.getLatency(secondary));
+	}
+
+	@Test
+	public void latency() {
+		health.success(primary, 300);
+		health.success(secondary, 100);
+		health.success(tertiary, 200);
+
+		assertEquals(Arrays.asList(secondary, tertiary, primary), health.order(relays));
+	}
+
+	@Test
+	public void failuresBeforeLatency() {
+		health.success(primary, 300);
+		health.success(secondary, 100);
+		health.success(tertiary, 200);
+		health.failure(secondary);
+
+		assertEquals(Arrays.asList(tertiary, primary, secondary), health.order(relays));
+	}
+
+	@Test
+	public void expired() {
+		health.failure(primary);
+		now += RelayHealth.FAILURE_WINDOW_MS;
+
+		assertEquals(relays, health.order(relays));
+		assertEquals(0, health.getFailures(primary));
+	}
+}
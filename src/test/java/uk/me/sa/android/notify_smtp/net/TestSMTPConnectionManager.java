@@ -0,0 +1,299 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+
+import org.apache.commons.net.smtp.AuthenticatingSMTPClient.AUTH_METHOD;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.data.Relay;
+import uk.me.sa.android.notify_smtp.data.SecurityMode;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+@PrepareForTest(fullyQualifiedNames = { "uk.me.sa.android.notify_smtp.net.SMTPConnectionManager" })
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*" })
+public class TestSMTPConnectionManager {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public PowerMockRule rule = new PowerMockRule();
+
+	@Mock
+	ValidatedPrefs prefs;
+
+	@Mock
+	ValidatedPrefs otherPrefs;
+
+	@Mock
+	AuthSMTPTLSClient client1;
+
+	@Mock
+	AuthSMTPTLSClient client2;
+
+	SMTPConnectionManager connections;
+
+	private static void setPrefs(ValidatedPrefs prefs, String node, long keepAliveMs) {
+		Whitebox.setInternalState(prefs, "node", node);
+		Whitebox.setInternalState(prefs, "port", 587);
+		Whitebox.setInternalState(prefs, "relays", Arrays.asList(new Relay(node, 587)));
+		Whitebox.setInternalState(prefs, "security", SecurityMode.STARTTLS_REQUIRED);
+		Whitebox.setInternalState(prefs, "username", "username");
+		Whitebox.setInternalState(prefs, "password", "password");
+		Whitebox.setInternalState(prefs, "keepAliveMs", keepAliveMs);
+	}
+
+	private static void setClient(AuthSMTPTLSClient client) throws Exception {
+		Mockito.doReturn(250).when(client).getReplyCode();
+		Mockito.doReturn(true).when(client).elogin();
+		Mockito.doReturn(true).when(client).execTLS();
+		Mockito.doReturn(true).when(client).auth(AUTH_METHOD.PLAIN, "username", "password");
+		Mockito.doReturn(true).when(client).isConnected();
+		Mockito.doReturn(true).when(client).sendNoOp();
+		Mockito.doReturn(true).when(client).logout();
+	}
+
+	@Before
+	public void create() throws Exception {
+		MockitoAnnotations.initMocks(this);
+
+		setPrefs(prefs, "node", 60000);
+		setPrefs(otherPrefs, "other", 60000);
+		setClient(client1);
+		setClient(client2);
+		PowerMockito.whenNew(AuthSMTPTLSClient.class).withArguments(Mockito.any(TLSSessions.class), Mockito.anyBoolean()).thenReturn(client1, client2);
+
+		connections = new SMTPConnectionManager();
+	}
+
+	@Test
+	public void connect() throws Exception {
+		assertSame(client1, connections.acquire(prefs));
+
+		Mockito.verify(client1).connect("node", 587);
+		Mockito.verify(client1).execTLS();
+		Mockito.verify(client1, Mockito.times(2)).elogin();
+		Mockito.verify(client1).auth(AUTH_METHOD.PLAIN, "username", "password");
+		Mockito.verify(client1, Mockito.never()).disconnect();
+	}
+
+	@Test
+	public void failover() throws Exception {
+		Whitebox.setInternalState(prefs, "relays", Arrays.asList(new Relay("node", 587), new Relay("backup", 25)));
+		Mockito.doThrow(new ConnectException()).when(client1).connect("node", 587);
+
+		assertSame(client2, connections.acquire(prefs));
+		Mockito.verify(client2).connect("backup", 25);
+		assertEquals(1, connections.getHealth().getFailures(new Relay("node", 587)));
+		assertEquals(0, connections.getHealth().getFailures(new Relay("backup", 25)));
+		assertTrue(connections.getHealth().getLatency(new Relay("backup", 25)) >= 0);
+
+		connections.discard(client2);
+		assertSame(client2, connections.acquire(prefs));
+		Mockito.verify(client2, Mockito.times(2)).connect("backup", 25);
+		Mockito.verify(client2, Mockito.never()).connect("node", 587);
+	}
+
+	@Test
+	public void failoverAllFailed() throws Exception {
+		Whitebox.setInternalState(prefs, "relays", Arrays.asList(new Relay("node", 587), new Relay("backup", 25)));
+		IOException failure = new ConnectException();
+		Mockito.doThrow(new ConnectException()).when(client1).connect("node", 587);
+		Mockito.doThrow(failure).when(client2).connect("backup", 25);
+
+		try {
+			connections.acquire(prefs);
+			fail();
+		} catch (IOException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void connectImplicitTLS() throws Exception {
+		Whitebox.setInternalState(prefs, "security", SecurityMode.IMPLICIT_TLS);
+		connections.acquire(prefs);
+
+		PowerMockito.verifyNew(AuthSMTPTLSClient.class).withArguments(Mockito.any(TLSSessions.class), Mockito.eq(true));
+		Mockito.verify(client1).connect("node", 587);
+		Mockito.verify(client1, Mockito.never()).execTLS();
+		Mockito.verify(client1).elogin();
+		Mockito.verify(client1).auth(AUTH_METHOD.PLAIN, "username", "password");
+	}
+
+	@Test
+	public void connectRequiredSTARTTLSFailed() throws Exception {
+		Mockito.doReturn(false).when(client1).execTLS();
+		Mockito.doReturn(250).doReturn(454).when(client1).getReplyCode();
+
+		try {
+			connections.acquire(prefs);
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals(454, e.code);
+		}
+
+		Mockito.verify(client1, Mockito.never()).auth(Mockito.any(AUTH_METHOD.class), Mockito.anyString(), Mockito.anyString());
+		Mockito.verify(client1).disconnect();
+	}
+
+	@Test
+	public void connectRejected() throws Exception {
+		Mockito.doReturn(554).when(client1).getReplyCode();
+
+		try {
+			connections.acquire(prefs);
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals(554, e.code);
+			assertTrue(e.isPermanent());
+		}
+		Mockito.verify(client1).disconnect();
+		assertEquals(1, connections.getHealth().getFailures(new Relay("node", 587)));
+	}
+
+	@Test
+	public void authFailed() throws Exception {
+		Mockito.doReturn(false).when(client1).auth(AUTH_METHOD.PLAIN, "username", "password");
+		Mockito.doReturn(250).doReturn(535).when(client1).getReplyCode();
+
+		try {
+			connections.acquire(prefs);
+			fail();
+		} catch (SMTPReplyException e) {
+			assertEquals(535, e.code);
+		}
+		Mockito.verify(client1).disconnect();
+		assertEquals(0, connections.getHealth().getFailures(new Relay("node", 587)));
+	}
+
+	@Test
+	public void reuse() throws Exception {
+		connections.release(prefs, connections.acquire(prefs));
+
+		assertSame(client1, connections.acquire(prefs));
+		Mockito.verify(client1).sendNoOp();
+		Mockito.verify(client1, Mockito.never()).disconnect();
+		PowerMockito.verifyNew(AuthSMTPTLSClient.class, Mockito.times(1)).withArguments(Mockito.any(TLSSessions.class), Mockito.anyBoolean());
+	}
+
+	@Test
+	public void reconnectNoOpFailed() throws Exception {
+		connections.release(prefs, connections.acquire(prefs));
+		Mockito.doReturn(false).when(client1).sendNoOp();
+
+		assertSame(client2, connections.acquire(prefs));
+		Mockito.verify(client1).disconnect();
+	}
+
+	@Test
+	public void reconnectServerChanged() throws Exception {
+		connections.release(prefs, connections.acquire(prefs));
+
+		assertSame(client2, connections.acquire(otherPrefs));
+		Mockito.verify(client1).logout();
+		Mockito.verify(client1).disconnect();
+		Mockito.verify(client2).connect("other", 587);
+	}
+
+	@Test
+	public void keepAliveDisabled() throws Exception {
+		setPrefs(prefs, "node", 0);
+
+		connections.release(prefs, connections.acquire(prefs));
+
+		Mockito.verify(client1).logout();
+		Mockito.verify(client1).disconnect();
+		assertSame(client2, connections.acquire(prefs));
+	}
+
+	@Test
+	public void latencySaved() throws Exception {
+		CommandLatency latency = Mockito.mock(CommandLatency.class);
+		connections = new SMTPConnectionManager(null, latency);
+		setPrefs(prefs, "node", 50);
+
+		connections.release(prefs, connections.acquire(prefs));
+		Mockito.verify(latency, Mockito.never()).save();
+		connections.discard(connections.acquire(prefs));
+		Mockito.verify(latency).save();
+		connections.release(prefs, connections.acquire(prefs));
+		Mockito.verify(latency).save();
+
+		Mockito.verify(latency, Mockito.timeout(1000).times(2)).save();
+		Mockito.verify(client2).disconnect();
+
+		connections.close();
+		Mockito.verify(latency, Mockito.times(3)).save();
+	}
+
+	@Test
+	public void latencySavedKeepAliveDisabled() throws Exception {
+		CommandLatency latency = Mockito.mock(CommandLatency.class);
+		connections = new SMTPConnectionManager(null, latency);
+		setPrefs(prefs, "node", 0);
+
+		connections.release(prefs, connections.acquire(prefs));
+		Mockito.verify(client1).disconnect();
+		Mockito.verify(latency).save();
+
+		connections.release(prefs, connections.acquire(prefs));
+		Mockito.verify(client2).disconnect();
+		Mockito.verify(latency, Mockito.times(2)).save();
+	}
+
+	@Test
+	public void discard() throws Exception {
+		connections.discard(connections.acquire(prefs));
+
+		Mockito.verify(client1).disconnect();
+		assertSame(client2, connections.acquire(prefs));
+	}
+
+	@Test
+	public void close() throws Exception {
+		connections.release(prefs, connections.acquire(prefs));
+		connections.close();
+
+		Mockito.verify(client1).logout();
+		Mockito.verify(client1).disconnect();
+	}
+}
@@ -0,0 +1,51 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.util.RetryPolicy;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestSMTPRetryPolicy {
+	RetryPolicy policy = new SMTPRetryPolicy();
+
+	@Test
+	public void permanent() {
+		assertEquals(RetryPolicy.STOP, policy.delay(1, 0, new SMTPReplyException("AUTH", 535)));
+		assertEquals(RetryPolicy.STOP, policy.delay(1, 0, new SMTPReplyException("RCPT", 550)));
+	}
+
+	@Test
+	public void temporary() {
+		assertNotEquals(RetryPolicy.STOP, policy.delay(1, 0, new SMTPReplyException("MAIL", 451)));
+		assertNotEquals(RetryPolicy.STOP, policy.delay(1, 0, new SMTPReplyException("CONN", 421)));
+		assertNotEquals(RetryPolicy.STOP, policy.delay(1, 0, new IOException()));
+		assertNotEquals(RetryPolicy.STOP, policy.delay(1, 0, null));
+	}
+}
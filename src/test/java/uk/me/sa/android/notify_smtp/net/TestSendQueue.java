@@ -0,0 +1,354 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.AdditionalMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import uk.me.sa.android.notify_smtp.data.Event;
+import uk.me.sa.android.notify_smtp.data.Outbox;
+import uk.me.sa.android.notify_smtp.data.ValidatedPrefs;
+import uk.me.sa.android.notify_smtp.util.RetryScheduler;
+import uk.me.sa.android.notify_smtp.util.RunJobsAnswer;
+import uk.me.sa.android.notify_smtp.util.SendExecutor;
+import android.content.Context;
+import android.os.PowerManager;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+@PrepareForTest(fullyQualifiedNames = { "uk.me.sa.android.notify_smtp.net.SendQueue", "uk.me.sa.android.notify_smtp.net.SendQueue$Batch" })
+@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*" })
+public class TestSendQueue {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public PowerMockRule rule = new PowerMockRule();
+
+	@Mock
+	SendExecutor executor;
+
+	@Mock
+	RetryScheduler scheduler;
+
+	@Mock
+	RetryScheduler alarms;
+
+	@Mock
+	NetworkMonitor network;
+
+	@Mock
+	Outbox outbox;
+
+	@Mock
+	ValidatedPrefs prefs;
+
+	@Mock
+	SMTPConnectionManager connections;
+
+	@Mock
+	SendEmail sendEmail;
+
+	PowerManager pm;
+	RunJobsAnswer jobs;
+	RunJobsAnswer retries;
+	RunJobsAnswer delayed;
+	SendQueue queue;
+
+	@Before
+	public void create() throws Exception {
+		MockitoAnnotations.initMocks(this);
+
+		pm = (PowerManager)Robolectric.application.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+		jobs = new RunJobsAnswer();
+		Mockito.doAnswer(jobs).when(executor).execute(Mockito.isA(Runnable.class));
+		retries = new RunJobsAnswer();
+		Mockito.doAnswer(retries).when(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+		delayed = new RunJobsAnswer();
+		Mockito.doAnswer(delayed).when(alarms).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+		PowerMockito.whenNew(SendEmail.class).withAnyArguments().thenReturn(sendEmail);
+		Mockito.doReturn(true).when(sendEmail).call();
+		Mockito.doReturn(true).when(network).isAvailable();
+
+		queue = new SendQueue(pm, executor, scheduler, alarms, network, outbox, connections, 0);
+	}
+
+	@Test
+	public void single() throws Exception {
+		Event event = new Event("one", "com.example", 1);
+
+		queue.add(prefs, event);
+
+		Mockito.verify(outbox).add(event);
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void batched() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Event event3 = new Event("three", "com.example", 3);
+
+		queue.add(prefs, event1);
+		queue.add(prefs, event2);
+		queue.add(prefs, event3);
+
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2, event3));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void separateBatches() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		assertEquals(1, jobs.run());
+
+		queue.add(prefs, event2);
+		assertEquals(1, jobs.run());
+
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1));
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event2));
+		Mockito.verify(sendEmail, Mockito.times(2)).call();
+	}
+
+	@Test
+	public void batchWindow() throws Exception {
+		queue = new SendQueue(pm, executor, scheduler, alarms, network, outbox, connections, 5000);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		queue.add(prefs, event2);
+
+		assertEquals(0, jobs.run());
+		Mockito.verify(alarms).schedule(Mockito.isA(Runnable.class), AdditionalMatchers.gt(4000L));
+		Mockito.verify(scheduler, Mockito.never()).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+		Mockito.verify(sendEmail, Mockito.never()).call();
+
+		assertEquals(1, delayed.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void digest() throws Exception {
+		Whitebox.setInternalState(prefs, "digest", true);
+		Whitebox.setInternalState(prefs, "digestQuietMs", 0L);
+		Whitebox.setInternalState(prefs, "digestMaxCount", 20);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		queue.add(prefs, event2);
+
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test(timeout = 10000)
+	public void digestMaxCount() throws Exception {
+		Whitebox.setInternalState(prefs, "digest", true);
+		Whitebox.setInternalState(prefs, "digestQuietMs", 3600000L);
+		Whitebox.setInternalState(prefs, "digestMaxCount", 2);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		queue.add(prefs, event2);
+
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void digestQuiet() throws Exception {
+		Whitebox.setInternalState(prefs, "digest", true);
+		Whitebox.setInternalState(prefs, "digestQuietMs", 3600000L);
+		Whitebox.setInternalState(prefs, "digestMaxCount", 20);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		queue.add(prefs, event2);
+		assertEquals(0, jobs.run());
+
+		assertEquals(1, delayed.run());
+		Mockito.verify(sendEmail, Mockito.never()).call();
+
+		Whitebox.setInternalState(prefs, "digestQuietMs", 0L);
+		assertEquals(1, delayed.run());
+		assertEquals(0, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void digestMaxAge() throws Exception {
+		Whitebox.setInternalState(prefs, "digest", true);
+		Whitebox.setInternalState(prefs, "digestQuietMs", 3600000L);
+		Whitebox.setInternalState(prefs, "digestMaxCount", 20);
+		Whitebox.setInternalState(prefs, "digestMaxAgeMs", 50L);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		queue.add(prefs, event1);
+		Thread.sleep(60);
+		queue.add(prefs, event2);
+
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void replay() throws Exception {
+		List<Event> events = Arrays.asList(new Event("one", "com.example", 1), new Event("two", "com.example", 2));
+		Mockito.doReturn(events).when(outbox).pending();
+
+		queue.replay(prefs);
+
+		Mockito.verify(outbox, Mockito.never()).add(Mockito.any(Event.class));
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, events);
+		Mockito.verify(sendEmail).call();
+	}
+
+	@Test
+	public void replayEmpty() throws Exception {
+		queue.replay(prefs);
+
+		assertEquals(0, jobs.run());
+	}
+
+	@Test
+	public void retry() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Mockito.doReturn(false).doReturn(true).when(sendEmail).call();
+
+		queue.add(prefs, event1);
+		assertEquals(1, jobs.run());
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+
+		queue.add(prefs, event2);
+		assertEquals(0, jobs.run());
+
+		assertEquals(1, retries.run());
+		Mockito.verify(sendEmail, Mockito.times(2)).call();
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1));
+
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event2));
+		Mockito.verify(sendEmail, Mockito.times(3)).call();
+	}
+
+	@Test
+	public void offline() throws Exception {
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+		Mockito.doReturn(false).when(network).isAvailable();
+
+		queue.add(prefs, event1);
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class, Mockito.never()).withArguments(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+		queue.add(prefs, event2);
+		assertEquals(0, jobs.run());
+
+		Mockito.doReturn(true).when(network).isAvailable();
+		queue.onNetworkAvailable();
+		assertEquals(1, jobs.run());
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+		Mockito.verify(sendEmail).call();
+
+		queue.onNetworkAvailable();
+		assertEquals(0, jobs.run());
+	}
+
+	@Test(timeout = 10000)
+	public void executorFull() throws Exception {
+		SendExecutor executor = new SendExecutor(1, 1);
+		final CountDownLatch block = new CountDownLatch(1);
+		final CountDownLatch sent = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		Mockito.doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				sent.countDown();
+				return true;
+			}
+		}).when(sendEmail).call();
+		queue = new SendQueue(pm, executor, scheduler, alarms, network, outbox, connections, 0);
+		Event event1 = new Event("one", "com.example", 1);
+		Event event2 = new Event("two", "com.example", 2);
+
+		try {
+			executor.execute(blocked);
+			queue.add(prefs, event1);
+			executor.execute(blocked);
+			block.countDown();
+
+			queue.add(prefs, event2);
+			assertTrue(sent.await(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		}
+
+		PowerMockito.verifyNew(SendEmail.class).withArguments(prefs, outbox, connections, Arrays.asList(event1, event2));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestTLSSessions {
+	@Mock
+	SSLSocket socket;
+
+	@Mock
+	SSLSession session;
+
+	TLSSessions sessions;
+
+	@Before
+	public void create() {
+		MockitoAnnotations.initMocks(this);
+
+		Mockito.when(socket.getSession()).thenReturn(session);
+		sessions = new TLSSessions();
+	}
+
+	@Test
+	public void sharedContext() throws Exception {
+		assertSame(sessions.getContext(), sessions.getContext());
+	}
+
+	@Test
+	public void full() {
+		Mockito.when(session.getCreationTime()).thenReturn(1000L);
+
+		sessions.handshake(socket, 1000L);
+
+		assertEquals(0, sessions.getResumed());
+		assertEquals(1, sessions.getFull());
+	}
+
+	@Test
+	public void resumed() {
+		Mockito.when(session.getCreationTime()).thenReturn(999L);
+
+		sessions.handshake(socket, 1000L);
+		sessions.handshake(socket, 2000L);
+
+		assertEquals(2, sessions.getResumed());
+		assertEquals(0, sessions.getFull());
+	}
+}
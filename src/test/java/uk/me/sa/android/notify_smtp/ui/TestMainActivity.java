@@ -19,6 +19,10 @@
 package uk.me.sa.android.notify_smtp.ui;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -37,6 +41,8 @@ import org.robolectric.shadows.ShadowIntent;
 import org.robolectric.shadows.ShadowToast;
 import org.robolectric.util.ActivityController;
 
+import uk.me.sa.android.notify_smtp.R;
+import uk.me.sa.android.notify_smtp.net.CommandLatency;
 import android.content.Intent;
 import android.provider.Settings;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -87,4 +93,18 @@ public class TestMainActivity {
 		assertEquals(Settings.ACTION_NOTIFICATION_LISTENER_SETTINGS, shadowIntent.getAction());
 		assertEquals(Intent.FLAG_ACTIVITY_NEW_TASK, shadowIntent.getFlags() & Intent.FLAG_ACTIVITY_NEW_TASK);
 	}
+
+	@Test
+	public void stats() throws Exception {
+		File file = new File(activity.getFilesDir(), CommandLatency.FILENAME);
+		activity.showStats(new CommandLatency(file).getCommands());
+		assertEquals(activity.getString(R.string.stats_none), activity.stats.getText().toString());
+
+		CommandLatency latency = new CommandLatency(file);
+		latency.record("EHLO", TimeUnit.MILLISECONDS.toNanos(40));
+		latency.save();
+
+		activity.showStats(new CommandLatency(file).getCommands());
+		assertTrue(activity.stats.getText().toString().startsWith("EHLO          1 times, mean    40 ms"));
+	}
 }
@@ -0,0 +1,102 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestDataFiles {
+	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	File file;
+
+	@Before
+	public void create() throws Exception {
+		file = new File(folder.getRoot(), "data");
+	}
+
+	private void replace(final int value) throws IOException {
+		DataFiles.replace(file, new DataFiles.Writer() {
+			@Override
+			public void writeTo(DataOutputStream out) throws IOException {
+				out.writeInt(value);
+			}
+		});
+	}
+
+	private int read() throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void replaced() throws Exception {
+		replace(1);
+		assertEquals(1, read());
+
+		replace(2);
+		assertEquals(2, read());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void failed() throws Exception {
+		replace(1);
+
+		try {
+			DataFiles.replace(file, new DataFiles.Writer() {
+				@Override
+				public void writeTo(DataOutputStream out) throws IOException {
+					out.writeInt(2);
+					throw new IOException();
+				}
+			});
+			fail();
+		} catch (IOException e) {
+		}
+
+		assertEquals(4, file.length());
+		assertEquals(1, read());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestExponentialBackoff {
+	@Mock
+	Random random;
+
+	@Before
+	public void create() {
+		MockitoAnnotations.initMocks(this);
+
+		Mockito.when(random.nextDouble()).thenReturn(0.5);
+	}
+
+	@Test
+	public void exponential() {
+		RetryPolicy policy = new ExponentialBackoff(10, 1000, 10000, 2, 0.5, Long.MAX_VALUE, random);
+
+		assertEquals(1000, policy.delay(1, 0, null));
+		assertEquals(2000, policy.delay(2, 0, null));
+		assertEquals(4000, policy.delay(3, 0, null));
+		assertEquals(8000, policy.delay(4, 0, null));
+		assertEquals(10000, policy.delay(5, 0, null));
+		assertEquals(10000, policy.delay(9, 0, null));
+	}
+
+	@Test
+	public void jitter() {
+		RetryPolicy policy = new ExponentialBackoff(10, 1000, 10000, 2, 0.5, Long.MAX_VALUE, random);
+
+		Mockito.when(random.nextDouble()).thenReturn(0.0);
+		assertEquals(1000, policy.delay(2, 0, null));
+
+		Mockito.when(random.nextDouble()).thenReturn(1.0);
+		assertEquals(3000, policy.delay(2, 0, null));
+	}
+
+	@Test
+	public void attempts() {
+		RetryPolicy policy = new ExponentialBackoff(3, 1000, 10000, 2, 0, Long.MAX_VALUE, random);
+
+		assertEquals(2000, policy.delay(2, 0, null));
+		assertEquals(RetryPolicy.STOP, policy.delay(3, 0, null));
+	}
+
+	@Test
+	public void maxElapsed() {
+		RetryPolicy policy = new ExponentialBackoff(10, 1000, 10000, 2, 0, 5000, random);
+
+		assertEquals(2000, policy.delay(2, 3000, null));
+		assertEquals(RetryPolicy.STOP, policy.delay(2, 3001, null));
+	}
+
+	@Test
+	public void permanent() {
+		RetryPolicy policy = new ExponentialBackoff(10, 1000, 10000, 2, 0, Long.MAX_VALUE, random) {
+			@Override
+			protected boolean isPermanent(Exception failure) {
+				return failure instanceof IllegalStateException;
+			}
+		};
+
+		assertEquals(1000, policy.delay(1, 0, new Exception()));
+		assertEquals(RetryPolicy.STOP, policy.delay(1, 0, new IllegalStateException()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidMultiplier() {
+		new ExponentialBackoff(10, 1000, 10000, 0.5, 0, Long.MAX_VALUE);
+	}
+}
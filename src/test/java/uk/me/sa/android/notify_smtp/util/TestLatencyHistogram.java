@@ -0,0 +1,90 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestLatencyHistogram {
+	@Test
+	public void empty() {
+		LatencyHistogram histogram = new LatencyHistogram(10);
+		assertEquals(0, histogram.getCount());
+		assertEquals(-1, histogram.percentile(0.5));
+	}
+
+	@Test
+	public void buckets() {
+		LatencyHistogram histogram = new LatencyHistogram(10);
+		histogram.add(0);
+		histogram.add(10);
+		histogram.add(11);
+		histogram.add(60000);
+
+		int[] counts = histogram.getCounts();
+		assertEquals(LatencyHistogram.getBuckets(), counts.length);
+		assertEquals(2, counts[0]);
+		assertEquals(1, counts[1]);
+		assertEquals(1, counts[counts.length - 1]);
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.getBound(counts.length - 1));
+	}
+
+	@Test
+	public void percentile() {
+		LatencyHistogram histogram = new LatencyHistogram(100);
+		for (int i = 0; i < 90; i++)
+			histogram.add(40);
+		for (int i = 0; i < 10; i++)
+			histogram.add(400);
+
+		assertEquals(50, histogram.percentile(0.5));
+		assertEquals(50, histogram.percentile(0.9));
+		assertEquals(500, histogram.percentile(0.95));
+		assertEquals(500, histogram.percentile(1));
+	}
+
+	@Test
+	public void rolling() {
+		LatencyHistogram histogram = new LatencyHistogram(5);
+		for (int i = 0; i < 5; i++)
+			histogram.add(4000);
+		assertEquals(5000, histogram.percentile(0.5));
+
+		for (int i = 0; i < 5; i++)
+			histogram.add(15);
+		assertEquals(5, histogram.getCount());
+		assertEquals(20, histogram.percentile(1));
+		assertEquals(0, histogram.getCounts()[8]);
+	}
+
+	@Test
+	public void clear() {
+		LatencyHistogram histogram = new LatencyHistogram(5);
+		histogram.add(100);
+		histogram.clear();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getCounts()[3]);
+	}
+}
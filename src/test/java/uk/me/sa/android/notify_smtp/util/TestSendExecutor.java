@@ -0,0 +1,198 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+@SuppressFBWarnings("SIC_INNER_SHOULD_BE_STATIC_ANON")
+public class TestSendExecutor {
+	static class Record implements Runnable {
+		List<Integer> ran;
+		int value;
+
+		Record(List<Integer> ran, int value) {
+			this.ran = ran;
+			this.value = value;
+		}
+
+		@Override
+		public void run() {
+			ran.add(value);
+		}
+	}
+
+	static class Block implements Runnable {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	static class Discard extends Record implements SendExecutor.Discardable {
+		List<Integer> discarded;
+
+		Discard(List<Integer> ran, List<Integer> discarded, int value) {
+			super(ran, value);
+			this.discarded = discarded;
+		}
+
+		@Override
+		public void discard() {
+			discarded.add(value);
+		}
+	}
+
+	@Test
+	public void bounded() throws Exception {
+		SendExecutor executor = new SendExecutor(2, 5);
+
+		assertEquals(2, executor.getCorePoolSize());
+		assertEquals(2, executor.getMaximumPoolSize());
+		assertEquals(5, executor.getQueue().remainingCapacity());
+
+		executor.shutdown();
+	}
+
+	@Test
+	public void sequential() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 8);
+
+		for (int i = 1; i <= 5; i++)
+			executor.execute(new Record(ran, i));
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), ran);
+	}
+
+	@Test
+	public void discardOldest() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 2);
+		Block block = new Block();
+
+		executor.execute(block);
+		block.started.await();
+
+		for (int i = 1; i <= 4; i++)
+			executor.execute(new Record(ran, i));
+
+		block.release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(3, 4), ran);
+	}
+
+	@Test
+	public void discardNewest() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 2, new SendExecutor.DiscardPolicy());
+		Block block = new Block();
+
+		executor.execute(block);
+		block.started.await();
+
+		for (int i = 1; i <= 4; i++)
+			executor.execute(new Record(ran, i));
+
+		block.release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1, 2), ran);
+	}
+
+	@Test
+	public void discardOldestNotified() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Integer> discarded = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 2);
+		Block block = new Block();
+
+		executor.execute(block);
+		block.started.await();
+
+		for (int i = 1; i <= 4; i++)
+			executor.execute(new Discard(ran, discarded, i));
+
+		block.release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(3, 4), ran);
+		assertEquals(Arrays.asList(1, 2), discarded);
+	}
+
+	@Test
+	public void discardNewestNotified() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Integer> discarded = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 2, new SendExecutor.DiscardPolicy());
+		Block block = new Block();
+
+		executor.execute(block);
+		block.started.await();
+
+		for (int i = 1; i <= 4; i++)
+			executor.execute(new Discard(ran, discarded, i));
+
+		block.release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1, 2), ran);
+		assertEquals(Arrays.asList(3, 4), discarded);
+	}
+
+	@Test
+	public void shutdownNotified() throws Exception {
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Integer> discarded = Collections.synchronizedList(new ArrayList<Integer>());
+		SendExecutor executor = new SendExecutor(1, 2);
+
+		executor.shutdown();
+		executor.execute(new Discard(ran, discarded, 1));
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Collections.emptyList(), ran);
+		assertEquals(Arrays.asList(1), discarded);
+	}
+}
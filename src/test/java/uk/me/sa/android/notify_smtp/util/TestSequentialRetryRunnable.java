@@ -20,22 +20,21 @@ package uk.me.sa.android.notify_smtp.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PowerMockIgnore;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -43,19 +42,34 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(emulateSdk = 18)
-@PrepareForTest(fullyQualifiedNames = { "uk.me.sa.android.notify_smtp.util.SequentialRetryRunnable" })
-@PowerMockIgnore({ "org.mockito.*", "org.robolectric.*", "android.*" })
 @SuppressFBWarnings("SIC_INNER_SHOULD_BE_STATIC_ANON")
 public class TestSequentialRetryRunnable {
-	@SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
-	@Rule
-	public PowerMockRule rule = new PowerMockRule();
+	@Mock
+	RetryScheduler scheduler;
+
+	RunJobsAnswer jobs;
+	RetryPolicy policy = new ExponentialBackoff(3, 30000, 30000, 1, 0, Long.MAX_VALUE);
+	Boolean result;
 
 	@Before
-	public void noSleep() throws Exception {
-		PowerMockito.mockStatic(Thread.class);
-		PowerMockito.doNothing().when(Thread.class);
-		Thread.sleep(Mockito.anyLong());
+	public void create() {
+		MockitoAnnotations.initMocks(this);
+
+		jobs = new RunJobsAnswer();
+		Mockito.doAnswer(jobs).when(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+	}
+
+	private void run(Callable<Boolean> callable, RetryPolicy policy) {
+		new SequentialRetryRunnable(scheduler, callable, policy) {
+			@Override
+			protected void done(boolean success) {
+				assertNull(result);
+				result = success;
+			}
+		}.run();
+
+		while (jobs.run() > 0)
+			;
 	}
 
 	@Test
@@ -69,10 +83,11 @@ public class TestSequentialRetryRunnable {
 			}
 		};
 
-		new SequentialRetryRunnable(callable).run();
+		run(callable, policy);
 
 		assertEquals(1, callCount.get());
-		PowerMockito.verifyNoMoreInteractions(Thread.class);
+		assertTrue(result);
+		Mockito.verifyZeroInteractions(scheduler);
 	}
 
 	@Test
@@ -86,12 +101,12 @@ public class TestSequentialRetryRunnable {
 			}
 		};
 
-		new SequentialRetryRunnable(callable).run();
+		run(callable, policy);
 
 		assertEquals(3, callCount.get());
-		PowerMockito.verifyStatic(Mockito.times(2));
-		Thread.sleep(30000);
-		PowerMockito.verifyNoMoreInteractions(Thread.class);
+		assertFalse(result);
+		Mockito.verify(scheduler, Mockito.times(2)).schedule(Mockito.isA(Runnable.class), Mockito.eq(30000L));
+		Mockito.verifyNoMoreInteractions(scheduler);
 	}
 
 	@Test
@@ -105,12 +120,30 @@ public class TestSequentialRetryRunnable {
 			}
 		};
 
-		new SequentialRetryRunnable(callable).run();
+		run(callable, policy);
 
 		assertEquals(3, callCount.get());
-		PowerMockito.verifyStatic(Mockito.times(2));
-		Thread.sleep(30000);
-		PowerMockito.verifyNoMoreInteractions(Thread.class);
+		assertFalse(result);
+		Mockito.verify(scheduler, Mockito.times(2)).schedule(Mockito.isA(Runnable.class), Mockito.eq(30000L));
+		Mockito.verifyNoMoreInteractions(scheduler);
+	}
+
+	@Test
+	public void retrySuccess() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+
+		Callable<Boolean> callable = new Callable<Boolean>() {
+			public Boolean call() {
+				return callCount.incrementAndGet() == 2;
+			}
+		};
+
+		run(callable, policy);
+
+		assertEquals(2, callCount.get());
+		assertTrue(result);
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(30000L));
+		Mockito.verifyNoMoreInteractions(scheduler);
 	}
 
 	@Test(expected = Error.class)
@@ -121,7 +154,93 @@ public class TestSequentialRetryRunnable {
 			}
 		};
 
-		new SequentialRetryRunnable(callable).run();
+		run(callable, policy);
+	}
+
+	@Test
+	public void discarded() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+
+		Callable<Boolean> callable = new Callable<Boolean>() {
+			public Boolean call() {
+				callCount.incrementAndGet();
+				return true;
+			}
+		};
+
+		SendExecutor.discard(new WakeLockRunnable(null, new SequentialRetryRunnable(scheduler, callable, policy) {
+			@Override
+			protected void done(boolean success) {
+				assertNull(result);
+				result = success;
+			}
+		}));
+
+		assertEquals(0, callCount.get());
+		assertFalse(result);
+	}
+
+	@Test
+	public void rejected() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+
+		Callable<Boolean> callable = new Callable<Boolean>() {
+			public Boolean call() {
+				callCount.incrementAndGet();
+				return false;
+			}
+		};
+
+		Mockito.doThrow(new RejectedExecutionException()).when(scheduler)
+				.schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
+
+		run(callable, policy);
+
+		assertEquals(1, callCount.get());
+		assertFalse(result);
+	}
+
+	@Test
+	public void permanentFailure() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+
+		Callable<Boolean> callable = new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				callCount.incrementAndGet();
+				throw new IllegalStateException();
+			}
+		};
+
+		run(callable, new ExponentialBackoff(3, 30000, 30000, 1, 0, Long.MAX_VALUE) {
+			@Override
+			protected boolean isPermanent(Exception failure) {
+				return failure instanceof IllegalStateException;
+			}
+		});
+
+		assertEquals(1, callCount.get());
+		assertFalse(result);
+		Mockito.verifyZeroInteractions(scheduler);
+	}
+
+	@Test
+	public void backoff() throws Exception {
+		final AtomicInteger callCount = new AtomicInteger();
+
+		Callable<Boolean> callable = new Callable<Boolean>() {
+			public Boolean call() {
+				callCount.incrementAndGet();
+				return false;
+			}
+		};
+
+		run(callable, new ExponentialBackoff(4, 1000, 3000, 2, 0, Long.MAX_VALUE));
+
+		assertEquals(4, callCount.get());
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(1000L));
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(2000L));
+		Mockito.verify(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.eq(3000L));
+		Mockito.verifyNoMoreInteractions(scheduler);
 	}
 
 	@SuppressFBWarnings({ "WA_NOT_IN_LOOP", "IMSE_DONT_CATCH_IMSE" })
@@ -149,15 +268,14 @@ public class TestSequentialRetryRunnable {
 		};
 
 		assertFalse(threadOwnsMonitor(callable.getClass()));
-		new SequentialRetryRunnable(callable).run();
+		run(callable, policy);
 		assertFalse(threadOwnsMonitor(callable.getClass()));
 
 		assertEquals(1, callCount.get());
-		PowerMockito.verifyNoMoreInteractions(Thread.class);
 	}
 
 	@Test
-	public void synchronizedSleep() throws Exception {
+	public void unsynchronizedRetry() throws Exception {
 		final AtomicInteger callCount = new AtomicInteger();
 
 		final Callable<Boolean> callable = new Callable<Boolean>() {
@@ -167,22 +285,17 @@ public class TestSequentialRetryRunnable {
 			}
 		};
 
-		PowerMockito.doAnswer(new Answer<Void>() {
+		Mockito.doAnswer(new Answer<Void>() {
 			@Override
 			public Void answer(InvocationOnMock invocation) throws Throwable {
-				assertTrue(threadOwnsMonitor(callable.getClass()));
-				return null;
+				assertFalse(threadOwnsMonitor(callable.getClass()));
+				return jobs.answer(invocation);
 			}
-		}).when(Thread.class);
-		Thread.sleep(Mockito.anyLong());
+		}).when(scheduler).schedule(Mockito.isA(Runnable.class), Mockito.anyLong());
 
-		assertFalse(threadOwnsMonitor(callable.getClass()));
-		new SequentialRetryRunnable(callable).run();
-		assertFalse(threadOwnsMonitor(callable.getClass()));
+		run(callable, policy);
 
 		assertEquals(3, callCount.get());
-		PowerMockito.verifyStatic(Mockito.times(2));
-		Thread.sleep(30000);
-		PowerMockito.verifyNoMoreInteractions(Thread.class);
+		Mockito.verify(scheduler, Mockito.times(2)).schedule(Mockito.isA(Runnable.class), Mockito.eq(30000L));
 	}
 }
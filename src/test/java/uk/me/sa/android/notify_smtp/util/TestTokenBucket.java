@@ -0,0 +1,72 @@
+/*
+	notify-smtp-android - Android Notify to SMTP Service
+
+	Copyright 2015  Simon Arlott
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.me.sa.android.notify_smtp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class TestTokenBucket {
+	@Test
+	public void burst() {
+		TokenBucket bucket = new TokenBucket(3, 1000, 0);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(bucket.available(0));
+			bucket.take();
+		}
+		assertFalse(bucket.available(0));
+		assertEquals(1000, bucket.delay(0));
+	}
+
+	@Test
+	public void refill() {
+		TokenBucket bucket = new TokenBucket(1, 1000, 0);
+		bucket.take();
+		assertFalse(bucket.available(999));
+		assertEquals(1, bucket.delay(999));
+		assertTrue(bucket.available(1000));
+		assertEquals(0, bucket.delay(1000));
+	}
+
+	@Test
+	public void capped() {
+		TokenBucket bucket = new TokenBucket(2, 1000, 0);
+		assertTrue(bucket.available(1000000));
+		bucket.take();
+		bucket.take();
+		assertFalse(bucket.available(1000000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidCapacity() {
+		new TokenBucket(0, 1000, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidRate() {
+		new TokenBucket(1, 0, 0);
+	}
+}